@@ -0,0 +1,101 @@
+package org.openjfx;
+
+/**
+ * Axis aligned bounds of 3D objects, including the end points of lines.
+ * Empty bounds have min > max.
+ */
+public class DDDBounds {
+
+	double minX;
+	double minY;
+	double minZ;
+	double maxX;
+	double maxY;
+	double maxZ;
+
+	public DDDBounds() {
+		clear();
+	}
+
+	public DDDBounds(DDDBounds other) {
+		set(other);
+	}
+
+	public static DDDBounds of(DDDFrame frame) {
+		DDDBounds result = new DDDBounds();
+		result.include(frame);
+		return result;
+	}
+
+	public void clear() {
+		minX = Double.POSITIVE_INFINITY;
+		minY = Double.POSITIVE_INFINITY;
+		minZ = Double.POSITIVE_INFINITY;
+		maxX = Double.NEGATIVE_INFINITY;
+		maxY = Double.NEGATIVE_INFINITY;
+		maxZ = Double.NEGATIVE_INFINITY;
+	}
+
+	public void set(DDDBounds other) {
+		minX = other.minX;
+		minY = other.minY;
+		minZ = other.minZ;
+		maxX = other.maxX;
+		maxY = other.maxY;
+		maxZ = other.maxZ;
+	}
+
+	public boolean isEmpty() {
+		return minX > maxX;
+	}
+
+	public void include(double x, double y, double z) {
+		minX = Math.min(minX, x);
+		minY = Math.min(minY, y);
+		minZ = Math.min(minZ, z);
+		maxX = Math.max(maxX, x);
+		maxY = Math.max(maxY, y);
+		maxZ = Math.max(maxZ, z);
+	}
+
+	public void include(DDDFrame frame) {
+		for (int i=0; i<frame.count; i++) {
+			include(frame.x[i], frame.y[i], frame.z[i]);
+			if (frame.isLine(i)) {
+				include(frame.x2[i], frame.y2[i], frame.z2[i]);
+			}
+		}
+	}
+
+	public void include(DDDBounds other) {
+		if (other.isEmpty()) {
+			return;
+		}
+		include(other.minX, other.minY, other.minZ);
+		include(other.maxX, other.maxY, other.maxZ);
+	}
+
+	public double getCenterX() {
+		return (maxX + minX) / 2;
+	}
+
+	public double getCenterY() {
+		return (maxY + minY) / 2;
+	}
+
+	public double getCenterZ() {
+		return (maxZ + minZ) / 2;
+	}
+
+	/**
+	 * the largest extent along one of the axes.
+	 */
+	public double getMaxExtent() {
+		return Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+	}
+
+	@Override
+	public String toString() {
+		return "DDDBounds[" + minX + "," + minY + "," + minZ + " - " + maxX + "," + maxY + "," + maxZ + "]";
+	}
+}
@@ -0,0 +1,117 @@
+package org.openjfx;
+
+import java.util.Arrays;
+
+/**
+ * One step of the 3D output, stored as parallel primitive arrays instead of one
+ * DDDObject per point.
+ * The line end points x2/y2/z2 are only allocated once the first line is added.
+ */
+public class DDDFrame {
+
+	/** id for objects without identity, the output assigns an id when the frame is added */
+	public static final int ANONYMOUS = -1;
+
+	int count;
+	int[] id;
+	int[] type;
+	double[] x;
+	double[] y;
+	double[] z;
+	double[] size;
+	double[] x2;
+	double[] y2;
+	double[] z2;
+
+	public DDDFrame() {
+		this(16);
+	}
+
+	public DDDFrame(int capacity) {
+		capacity = Math.max(1, capacity);
+		this.count = 0;
+		this.id = new int[capacity];
+		this.type = new int[capacity];
+		this.x = new double[capacity];
+		this.y = new double[capacity];
+		this.z = new double[capacity];
+		this.size = new double[capacity];
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public static boolean isLineType(int type) {
+		return type >= 30;
+	}
+
+	public boolean isLine(int idx) {
+		return isLineType(type[idx]);
+	}
+
+	public int addPoint(int objectId, double px, double py, double pz, double psize, int ptype) {
+		ensureCapacity(count+1);
+		int idx = count++;
+		id[idx] = objectId;
+		type[idx] = ptype;
+		x[idx] = px;
+		y[idx] = py;
+		z[idx] = pz;
+		size[idx] = psize;
+		return idx;
+	}
+
+	public int addLine(int objectId, double px, double py, double pz, double px2, double py2, double pz2, double psize, int ptype) {
+		int idx = addPoint(objectId, px, py, pz, psize, ptype);
+		ensureLineArrays();
+		x2[idx] = px2;
+		y2[idx] = py2;
+		z2[idx] = pz2;
+		return idx;
+	}
+
+	void ensureLineArrays() {
+		if (x2 == null) {
+			x2 = new double[id.length];
+			y2 = new double[id.length];
+			z2 = new double[id.length];
+		}
+	}
+
+	private void ensureCapacity(int minCapacity) {
+		if (minCapacity <= id.length) {
+			return;
+		}
+		resize(Math.max(minCapacity, 2*id.length));
+	}
+
+	/**
+	 * drop the unused capacity, called before a frame is stored for a longer time.
+	 */
+	public DDDFrame trimToSize() {
+		if (count < id.length) {
+			resize(Math.max(1, count));
+		}
+		return this;
+	}
+
+	private void resize(int capacity) {
+		id = Arrays.copyOf(id, capacity);
+		type = Arrays.copyOf(type, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		z = Arrays.copyOf(z, capacity);
+		size = Arrays.copyOf(size, capacity);
+		if (x2 != null) {
+			x2 = Arrays.copyOf(x2, capacity);
+			y2 = Arrays.copyOf(y2, capacity);
+			z2 = Arrays.copyOf(z2, capacity);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "DDDFrame[" + count + "]";
+	}
+}
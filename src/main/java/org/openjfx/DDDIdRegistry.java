@@ -0,0 +1,54 @@
+package org.openjfx;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands out dense int ids for the objects of the 3D output.
+ * Named objects get the same id for the same name, so the name has to be hashed only once instead of in every frame.
+ * Anonymous objects do not get an id here, they keep DDDFrame.ANONYMOUS until the output matches them
+ * to one of its reserved ids, so the number of ids does not grow with the number of anonymous objects ever created.
+ */
+public class DDDIdRegistry {
+
+	public static final DDDIdRegistry DEFAULT = new DDDIdRegistry();
+
+	private int nextId;
+	private final Map<String, Integer> idsByName;
+	/** id -> name, null for reserved ids */
+	private final List<String> names;
+
+	public DDDIdRegistry() {
+		this.nextId = 0;
+		this.idsByName = new HashMap<>();
+		this.names = new ArrayList<>();
+	}
+
+	public synchronized int reserveId() {
+		names.add(null);
+		return nextId++;
+	}
+
+	public synchronized int intern(String name) {
+		Integer result = idsByName.get(name);
+		if (result == null) {
+			result = reserveId();
+			names.set(result, name);
+			idsByName.put(name, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the name the id was interned for or null for reserved ids.
+	 */
+	public synchronized String name(int id) {
+		return names.get(id);
+	}
+
+	public synchronized int size() {
+		return nextId;
+	}
+}
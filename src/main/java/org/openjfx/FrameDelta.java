@@ -0,0 +1,98 @@
+package org.openjfx;
+
+import java.util.Arrays;
+
+/**
+ * Compares each frame with the frame remembered before, keyed by object id:
+ * the objects which were added or changed and the ids of the removed objects.
+ * Used by the timeline and the recording, both store deltas between keyframes.
+ */
+class FrameDelta {
+
+	static final int[] NO_IDS = new int[0];
+
+	/** the last remembered frame, needed to calculate the next delta */
+	private DDDFrame lastFrame;
+	/** id -> index+1 in lastFrame, 0 for unknown ids */
+	private int[] lastIndexById = new int[16];
+	/** deltas are keyed by id, a frame using an id twice is always stored as keyframe */
+	private boolean lastFrameHasDuplicates;
+
+	/** added or changed objects found by the last successful compute() */
+	DDDFrame changes;
+	int[] removedIds;
+
+	/**
+	 * @return false if the frame has to be stored as keyframe, changes and removedIds are only set for true.
+	 */
+	boolean compute(DDDFrame frame) {
+		if ((lastFrame == null) || lastFrameHasDuplicates) {
+			return false;
+		}
+		DDDFrame result = new DDDFrame(16);
+		boolean[] seen = new boolean[lastFrame.count];
+		for (int i=0; i<frame.count; i++) {
+			int id = frame.id[i];
+			int lastIdx = (id < lastIndexById.length) ? lastIndexById[id]-1 : -1;
+			if (lastIdx >= 0) {
+				if (seen[lastIdx]) {
+					return false;
+				}
+				seen[lastIdx] = true;
+				if (StepTimeline.sameObject(lastFrame, lastIdx, frame, i)) {
+					continue;
+				}
+			}
+			StepTimeline.copyObject(frame, i, result);
+		}
+		int cntRemoved = 0;
+		for (int i=0; i<lastFrame.count; i++) {
+			if (!seen[i]) {
+				cntRemoved++;
+			}
+		}
+		int[] removed = cntRemoved == 0 ? NO_IDS : new int[cntRemoved];
+		cntRemoved = 0;
+		for (int i=0; i<lastFrame.count; i++) {
+			if (!seen[i]) {
+				removed[cntRemoved++] = lastFrame.id[i];
+			}
+		}
+		// a delta larger than the frame itself is useless, store a keyframe instead
+		if (result.count + removed.length >= frame.count) {
+			return false;
+		}
+		changes = result.trimToSize();
+		removedIds = removed;
+		return true;
+	}
+
+	/**
+	 * the next delta is computed against this frame, it must not be modified afterwards.
+	 */
+	void remember(DDDFrame frame) {
+		if (lastFrame != null) {
+			for (int i=0; i<lastFrame.count; i++) {
+				lastIndexById[lastFrame.id[i]] = 0;
+			}
+		}
+		lastFrame = frame;
+		lastFrameHasDuplicates = false;
+		for (int i=0; i<frame.count; i++) {
+			int id = frame.id[i];
+			if (id >= lastIndexById.length) {
+				lastIndexById = Arrays.copyOf(lastIndexById, Math.max(id+1, 2*lastIndexById.length));
+			}
+			if (lastIndexById[id] != 0) {
+				lastFrameHasDuplicates = true;
+			}
+			lastIndexById[id] = i+1;
+		}
+	}
+
+	void reset() {
+		Arrays.fill(lastIndexById, 0);
+		lastFrame = null;
+		lastFrameHasDuplicates = false;
+	}
+}
@@ -1,15 +1,19 @@
 package org.openjfx;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.UUID;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -29,6 +33,7 @@ import javafx.scene.Scene;
 import javafx.scene.SceneAntialiasing;
 import javafx.scene.SubScene;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.Slider;
 import javafx.scene.input.KeyEvent;
@@ -42,17 +47,20 @@ import javafx.scene.shape.Cylinder;
 import javafx.scene.shape.Shape3D;
 import javafx.scene.shape.Sphere;
 import javafx.scene.transform.Rotate;
+import javafx.scene.transform.Scale;
 import javafx.scene.transform.Transform;
 import javafx.scene.transform.Translate;
 import javafx.stage.Stage;
 
 
-public class GUIOutput3D extends Application {
+public class GUIOutput3D extends Application implements OutputSink {
+
+	/** set once the JavaFX toolkit was started by one of the viewers */
+	private static boolean toolkitStarted = false;
 
-	static GUIOutput3D instance = null;
-	
 	public static class DDDObject {
 		String id;
+		int objectId;
 		double x;
 		double y;
 		double z;
@@ -63,7 +71,11 @@ public class GUIOutput3D extends Application {
 			this(null, x, y, z, size, type);
 		}
 		public DDDObject(String id, double x, double y, double z, double size, int type) {
-			this.id = id!=null ? id : UUID.randomUUID().toString();
+			this(id != null ? DDDIdRegistry.DEFAULT.intern(id) : DDDFrame.ANONYMOUS, x, y, z, size, type);
+			this.id = id;
+		}
+		public DDDObject(int objectId, double x, double y, double z, double size, int type) {
+			this.objectId = objectId;
 			this.x = x;
 			this.y = y;
 			this.z = z;
@@ -73,7 +85,7 @@ public class GUIOutput3D extends Application {
 		
 		@Override
 		public String toString() {
-			return id+"(" + x + "," + y + "," + z + "|" + size + ")";
+			return (id != null ? id : "#"+objectId)+"(" + x + "," + y + "," + z + "|" + size + ")";
 		}
 	}
 
@@ -90,19 +102,197 @@ public class GUIOutput3D extends Application {
 			this.y2 = y2;
 			this.z2 = z2;
 		}
+		public DDDLineObject(int objectId, double x, double y, double z, double x2, double y2, double z2, double size, int type) {
+			super(objectId, x, y, z, size, type);
+			this.x2 = x2;
+			this.y2 = y2;
+			this.z2 = z2;
+		}
 	}
 	
+	/**
+	 * how anonymous objects are mapped to the cached nodes of the previous step.
+	 * NONE: no matching, the n-th anonymous object of a step gets the n-th anonymous id of the output.
+	 * SLOT: same type and same ordinal in the step.
+	 * NEAREST: same type and nearest geometry in the previous step.
+	 */
+	public enum MatchMode { NONE, SLOT, NEAREST }
+
+	/**
+	 * which steps Adjust Scale fits into the view, the static layer is always included.
+	 * WINDOW: the fit window steps up to the current step.
+	 */
+	public enum FitMode { CURRENT, ALL, WINDOW }
+
+	/**
+	 * NODES: one Box or Sphere node per object.
+	 * BATCHED: one MeshView per type, all boxes, spheres or lines of the type share one vertex buffer.
+	 */
+	public enum RenderMode { NODES, BATCHED }
+
 	private String title;
-	private boolean useCachedNodes;
+	private volatile boolean useCachedNodes;
+	private SlotMatcher slotMatcher;
+	/** null if the added steps are not recorded */
+	private volatile RecordingWriter recording;
+	private volatile RenderMode renderMode;
 	
-	private List<List<DDDObject>> dddObjects;
-	private List<String> dddTitles;
-	private int currentStep;
+	private volatile StepTimeline timeline;
+	/** step shown in the scene, only written on the JavaFX Application Thread */
+	private volatile int currentStep;
+	/** newest requested step, older requests which were not rendered yet are dropped */
+	private final AtomicInteger requestedStep = new AtomicInteger(-1);
+	/** set while a render of the requested step is queued on the JavaFX Application Thread */
+	private final AtomicBoolean renderScheduled = new AtomicBoolean();
+	/** render the requested step even if it is already shown, e.g. after the render mode changed */
+	private volatile boolean forceRender;
+	private volatile long requestNanos;
+
+	public static final int DEFAULT_FIT_WINDOW = 32;
+	private volatile FitMode fitMode = FitMode.CURRENT;
+	private volatile int fitWindow = DEFAULT_FIT_WINDOW;
+	private volatile boolean autoFit = true;
+	/** set once the scale was adjusted or set, auto fit does not override it */
+	private volatile boolean fitted;
+	private volatile DDDBounds staticBounds = new DDDBounds();
+	private volatile long lastStepLatencyNanos;
+
+	/** the window is opened with the first rendered step, not by the constructor, set after start() was posted */
+	private volatile boolean opened;
+	/** completed on the JavaFX Application Thread once the stage is shown */
+	private final CompletableFuture<GUIOutput3D> shown = new CompletableFuture<>();
+	private final long createdNanos;
+	/** -1 until the first step was rendered */
+	private volatile long timeToFirstFrameNanos = -1;
+
+	/** number of predicted next steps for which the scene diffs are computed in advance */
+	public static final int DEFAULT_PREFETCH_STEPS = 4;
+	private static ExecutorService diffWorkers;
+	private volatile int prefetchSteps = DEFAULT_PREFETCH_STEPS;
+	/** step the cached nodes of the dynamic layer show, -1 if they do not show a step */
+	private int sceneStep = -1;
+	/** diffs from the shown step to the predicted next steps, only accessed on the JavaFX Application Thread */
+	private final List<PrefetchedDiff> sceneDiffs = new ArrayList<>();
+	/** predicted next steps, reused by prefetchSceneDiffs */
+	private int[] predictedSteps = new int[0];
+	private int diffsApplied;
+	private int diffsMissed;
+
+	/** builds the groups of the uncached mode */
+	private static ExecutorService sceneBuilder;
+	private final AtomicInteger buildTarget = new AtomicInteger(-1);
+	/** radiusScale of the newest build request, written before buildTarget, so the builder never reads radiusScale */
+	private volatile double buildRadius;
+	private final AtomicBoolean buildScheduled = new AtomicBoolean();
+	/** nodes of replaced groups by shape, only accessed by the scene builder thread, refilled by every swap */
+	private final List<ArrayDeque<Node>> builderPools = List.of(new ArrayDeque<>(), new ArrayDeque<>(), new ArrayDeque<>());
+	/** radius baked into the nodes of the uncached mode */
+	private double builtRadius = Double.NaN;
+
+	/** objects shown in every step, uploaded once and never diffed */
+	private volatile DDDFrame staticFrame;
+	private DDDFrame uploadedStaticFrame;
+	private Node[] staticNodes;
+
+	private BatchedLayer staticBatches;
+	private BatchedLayer dynamicBatches;
+
+	private volatile long lastUpdateNanos;
+
+	/**
+	 * a cached node and the object values it was last updated with.
+	 */
+	static class NodeInfo {
+		final int id;
+		Node node;
+		int type;
+		double x;
+		double y;
+		double z;
+		double size;
+		double x2;
+		double y2;
+		double z2;
+		/** generation of the last update which contained this object */
+		int lastSeen;
+		/** hidden nodes are linked from the least to the most recently hidden one */
+		boolean hidden;
+		NodeInfo lruPrev;
+		NodeInfo lruNext;
+		NodeInfo(int id, Node node) {
+			this.id = id;
+			this.node = node;
+		}
+		void remember(DDDFrame frame, int idx) {
+			type = frame.type[idx];
+			x = frame.x[idx];
+			y = frame.y[idx];
+			z = frame.z[idx];
+			size = frame.size[idx];
+			if (frame.isLine(idx)) {
+				x2 = frame.x2[idx];
+				y2 = frame.y2[idx];
+				z2 = frame.z2[idx];
+			}
+		}
+	}
 
-	static record NodeInfo(DDDObject dddo, Node node) {}
-	Map<String, NodeInfo> nodeInfos;
+	/**
+	 * what the last update of the dynamic layer did with its nodes or batched objects.
+	 */
+	public static record UpdateStats(int created, int changed, int unchanged, int hidden) {}
+
+	/**
+	 * hits are cached nodes reused for an object, misses need a new node,
+	 * which is taken from the recycling pools if possible.
+	 */
+	public static record CacheStats(int size, int capacity, long hits, long misses, long evictions, long recycled) {}
+
+	public static final int DEFAULT_NODE_CACHE_CAPACITY = 100000;
+	/** max number of nodes kept per shape for recycling */
+	static final int POOL_CAPACITY = 4096;
+
+	/**
+	 * indexed by object id, no hashing per object. The ids are dense ids of the registry and anonymous objects
+	 * are matched to the reserved ids of the SlotMatcher, so it grows at most to the size of the registry.
+	 */
+	NodeInfo[] nodeInfos;
+	/** number of entries in nodeInfos */
+	int cachedCount;
+	/** hidden nodes beyond this number are evicted from the cache, the least recently hidden first */
+	private volatile int nodeCacheCapacity;
+	private NodeInfo lruHead;
+	private NodeInfo lruTail;
+	/** evicted nodes by shape: box, sphere, line */
+	private final List<ArrayDeque<Node>> nodePools = List.of(new ArrayDeque<>(), new ArrayDeque<>(), new ArrayDeque<>());
+	private final Set<Node> evictedNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+	private long cacheHits;
+	private long cacheMisses;
+	private long cacheEvictions;
+	private long cacheRecycled;
+	private volatile CacheStats lastCacheStats = new CacheStats(0, DEFAULT_NODE_CACHE_CAPACITY, 0, 0, 0, 0);
+	/** incremented for every call of updateNodes() */
+	int generation;
+	/** ids of the nodes made visible by the last updateNodes(), the next call hides those it does not see again */
+	int[] visibleIds;
+	int visibleCount;
+	/** filled while updateNodes() is running, swapped with visibleIds afterwards */
+	int[] nextVisibleIds;
+
+	private int statsCreated;
+	private int statsChanged;
+	private int statsUnchanged;
+	private int statsHidden;
+	private volatile UpdateStats lastUpdateStats = new UpdateStats(0, 0, 0, 0);
 	
 	double scale;
+	/** world -> scene coordinates, shared by all scene groups */
+	private final Scale worldScale = new Scale();
+	private final Translate worldOffset = new Translate();
+	/** object size, shared by all box and sphere nodes */
+	private final Scale radiusTransform = new Scale();
+	/** line thickness, shared by all line nodes, the line length is not scaled */
+	private final Scale lineRadiusTransform = new Scale();
 	double offsetX;
 	double offsetY;
 	double offsetZ;
@@ -120,21 +310,30 @@ public class GUIOutput3D extends Application {
     PhongMaterial matBlue;
     PhongMaterial[] matColor;
 
-	
+	/**
+	 * does not open the window and does not wait for it. The window is opened by the first added step
+	 * or by open(), a viewer without steps never shows a window. whenShown() completes once it is shown.
+	 */
 	public GUIOutput3D(String title, boolean useCachedNodes) {
 		this.title = title;
-		this.dddObjects = new ArrayList<>();
-		this.dddTitles = new ArrayList<>();
+		this.timeline = new StepTimeline();
 		this.currentStep = -1;
 		this.scale = 1.0;
 		this.offsetX = 0.0;
 		this.offsetY = 0.0;
 		this.offsetZ = 0.0;
 		this.radiusScale = 2.0;
-		this.nodeInfos = new HashMap<>();
+		this.nodeInfos = new NodeInfo[256];
+		this.visibleIds = new int[256];
+		this.visibleCount = 0;
+		this.nextVisibleIds = new int[256];
+		this.cachedCount = 0;
+		this.nodeCacheCapacity = DEFAULT_NODE_CACHE_CAPACITY;
 		this.useCachedNodes = useCachedNodes;
+		this.slotMatcher = new SlotMatcher(DDDIdRegistry.DEFAULT, MatchMode.NONE);
+		this.renderMode = RenderMode.NODES;
+		this.createdNanos = System.nanoTime();
 		initColors();
-		open();
 	}
 
 	
@@ -162,11 +361,215 @@ public class GUIOutput3D extends Application {
         matColor = new PhongMaterial[] {matRed, matGreen, matBlue, matYellow};
 	}
 	
+	public StepTimeline getTimeline() {
+		return timeline;
+	}
+
+	@Override
+	public String getInfo() {
+		return timeline.getCompressionInfo();
+	}
+
+	/**
+	 * appends the static layer and every added step to a recording, has to be called before the first step is added.
+	 */
+	public void recordTo(Path file) {
+		if (timeline.size() > 0) {
+			throw new RuntimeException("recording has to start before the first step");
+		}
+		recording = new RecordingWriter(file);
+	}
+
+	/**
+	 * completes the recording, the window stays open.
+	 */
+	@Override
+	public void close() {
+		if (recording != null) {
+			recording.close();
+		}
+	}
+
+	/**
+	 * adds the static layer and all steps of a recording, instead of running the simulation again.
+	 * @return nanos needed to load the recording.
+	 */
+	public long loadRecording(Path file) {
+		long startNanos = System.nanoTime();
+		RecordingReader reader = new RecordingReader(file);
+		try {
+			reader.replay(this);
+		}
+		finally {
+			reader.close();
+		}
+		return System.nanoTime() - startNanos;
+	}
+
+	/**
+	 * bounds the number of kept steps, has to be called before the first step is added.
+	 * SPILL keeps all steps, only capacity steps stay on the heap.
+	 * @param capacity 0 for unbounded.
+	 */
+	public void setStepCapacity(int capacity, StepTimeline.OverflowPolicy policy) {
+		if (timeline.size() > 0) {
+			throw new RuntimeException("the step capacity has to be set before the first step is added");
+		}
+		timeline = new StepTimeline(StepTimeline.DEFAULT_KEYFRAME_INTERVAL, capacity, policy);
+	}
+
+	/**
+	 * switching the mode replaces the nodes of the dynamic layer: cached nodes share the size transforms,
+	 * the nodes of the scene builder have the radius baked in, so neither can be used by the other mode.
+	 */
 	public void setUseCachedNodes(boolean useCachedNodesValue) {
+		if (useCachedNodes == useCachedNodesValue) {
+			return;
+		}
 		useCachedNodes = useCachedNodesValue;
+		runIfOpen(()->{
+			currentScene.getChildren().clear();
+			clearCache();
+			for (PrefetchedDiff prefetched:sceneDiffs) {
+				prefetched.future.cancel(false);
+			}
+			sceneDiffs.clear();
+			builtRadius = Double.NaN;
+			refreshCanvas();
+		});
+	}
+	/**
+	 * the static layer is shown below the objects of every step.
+	 * Its nodes are created once and are not touched by step switches or scale changes.
+	 */
+	public void setStaticLayer(List<DDDObject> dddOs) {
+		setStaticLayer(toFrame(dddOs));
+	}
+
+	public void setStaticLayer(DDDFrame frame) {
+		staticFrame = frame.trimToSize();
+		staticBounds = DDDBounds.of(frame);
+		if (recording != null) {
+			recording.writeStaticLayer(frame);
+		}
+		autoFit(-1);
+		runIfOpen(this::updateStaticLayer);
+	}
+
+	private void updateStaticLayer() {
+		DDDFrame frame = staticFrame;
+		if (renderMode == RenderMode.BATCHED) {
+			if ((frame != uploadedStaticFrame) || (staticBatches.radius != radiusScale)) {
+				staticBatches.update(frame == null ? new DDDFrame() : frame, true);
+				uploadedStaticFrame = frame;
+			}
+		}
+		else if (frame != uploadedStaticFrame) {
+			staticScene.getChildren().clear();
+			staticNodes = new Node[frame == null ? 0 : frame.count];
+			for (int i=0; i<staticNodes.length; i++) {
+				staticNodes[i] = createNode(frame, i);
+			}
+			staticScene.getChildren().addAll(staticNodes);
+			uploadedStaticFrame = frame;
+		}
+	}
+
+	/**
+	 * scale and offset are transforms of the scene groups, the object size is scaled by shared transforms of the nodes.
+	 * Only the batched meshes have the radius baked into their vertices.
+	 */
+	private void applyLayout() {
+		worldScale.setX(scale);
+		worldScale.setY(scale);
+		worldScale.setZ(scale);
+		worldOffset.setX(-offsetX);
+		worldOffset.setY(-offsetY);
+		worldOffset.setZ(-offsetZ);
+		radiusTransform.setX(radiusScale);
+		radiusTransform.setY(radiusScale);
+		radiusTransform.setZ(radiusScale);
+		lineRadiusTransform.setX(radiusScale);
+		lineRadiusTransform.setZ(radiusScale);
+		if ((renderMode == RenderMode.BATCHED) && ((staticBatches.radius != radiusScale) || (dynamicBatches.radius != radiusScale))) {
+			refreshCanvas();
+		}
+		else if ((renderMode == RenderMode.NODES) && !useCachedNodes && (builtRadius != radiusScale) && !Double.isNaN(builtRadius)) {
+			// the uncached mode rebuilds the scene anyway, so it bakes the radius into the nodes
+			refreshCanvas();
+		}
+	}
+
+	private void layoutChanged() {
+		runIfOpen(this::applyLayout);
+	}
+
+	private void addWorldTransforms(Group group) {
+		group.getTransforms().addAll(worldScale, worldOffset);
+	}
+
+	/**
+	 * switching the render mode rebuilds the whole scene.
+	 */
+	public void setRenderMode(RenderMode mode) {
+		renderMode = mode;
+		runIfOpen(()->{
+			staticScene.getChildren().clear();
+			currentScene.getChildren().clear();
+			clearCache();
+			uploadedStaticFrame = null;
+			staticNodes = null;
+			staticBatches = new BatchedLayer(staticScene);
+			dynamicBatches = new BatchedLayer(currentScene);
+			refreshCanvas();
+		});
+	}
+
+	public RenderMode getRenderMode() {
+		return renderMode;
+	}
+
+	/**
+	 * number of nodes below the 3D root, including hidden cached nodes.
+	 */
+	public int getSceneNodeCount() {
+		return staticScene.getChildren().size() + currentScene.getChildren().size();
+	}
+
+	/**
+	 * time the JavaFX Application Thread needed to apply the last step to the scene graph.
+	 */
+	public long getLastUpdateNanos() {
+		return lastUpdateNanos;
+	}
+
+	/**
+	 * only affects steps added afterwards.
+	 */
+	public void setMatchMode(MatchMode matchMode) {
+		slotMatcher = new SlotMatcher(DDDIdRegistry.DEFAULT, matchMode);
 	}
 	public void clearCache() {
-		nodeInfos.clear();
+		nodeInfos = new NodeInfo[256];
+		cachedCount = 0;
+		visibleCount = 0;
+		lruHead = null;
+		lruTail = null;
+		sceneStep = -1;
+	}
+
+	/**
+	 * max number of cached nodes, hidden nodes beyond it are removed from the scene and recycled.
+	 */
+	public void setNodeCacheCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new RuntimeException("invalid node cache capacity " + capacity);
+		}
+		nodeCacheCapacity = capacity;
+	}
+
+	public CacheStats getNodeCacheStats() {
+		return lastCacheStats;
 	}
 
 	private Node createSphere(float size, PhongMaterial mat) {
@@ -305,256 +708,976 @@ public class GUIOutput3D extends Application {
 
 
 
-	private Node createNode(DDDObject dddo) {
+	private Node createNode(DDDFrame frame, int idx) {
+		int type = frame.type[idx];
+		if ((type >= 0) && (type < 40)) {
+			Node recycled = nodePools.get(poolIndex(type)).poll();
+			if (recycled != null) {
+				cacheRecycled++;
+				updateNode(recycled, frame, idx, 1.0);
+				return recycled;
+			}
+		}
+		Node child = createShape(frame, idx, 1.0);
+		// applied first, so only the size is scaled and not the position
+		child.getTransforms().add(DDDFrame.isLineType(type) ? lineRadiusTransform : radiusTransform);
+		return child;
+	}
+
+	/**
+	 * a new node without the shared transforms, its size is multiplied with radius.
+	 * Does not touch the scene, so it can be called off the JavaFX Application Thread.
+	 */
+	private Node createShape(DDDFrame frame, int idx, double radius) {
+		int type = frame.type[idx];
 		Node child;
-		float size = (float) (radiusScale * scale * dddo.size);
+		float size = (float) (radius * frame.size[idx]);
 		boolean doTranslate = true;
-		switch (dddo.type) {
+		switch (type) {
 		case 0,1,2,3: {
-			PhongMaterial mat = matColor[dddo.type];
+			PhongMaterial mat = matColor[type];
 			child = createBox(size, mat);
 			break;
 		}
 		case 10,11,12,13: {
-			PhongMaterial mat = matColor[dddo.type-10];
+			PhongMaterial mat = matColor[type-10];
 			child = createSphere(size, mat);
 			break;
 		}
 		case 30,31,32,33: {
-			PhongMaterial mat = matColor[dddo.type -30];
-			DDDLineObject line = (DDDLineObject)dddo;
-			Point3D from = new Point3D(scale*(line.x-offsetX), scale*(line.y-offsetY), scale*(line.z-offsetZ));
-			Point3D to = new Point3D(scale*(line.x2-offsetX), scale*(line.y2-offsetY), scale*(line.z2-offsetZ));
+			PhongMaterial mat = matColor[type-30];
+			Point3D from = new Point3D(frame.x[idx], frame.y[idx], frame.z[idx]);
+			Point3D to = new Point3D(frame.x2[idx], frame.y2[idx], frame.z2[idx]);
 			child = createLineBox(from, to, (float)(size), mat);
 			doTranslate = false;
 			break;
 		}
 		default:
-			throw new RuntimeException("invalid type " + dddo.type);
+			throw new RuntimeException("invalid type " + type);
 		}
 		if (doTranslate) {
-			child.setTranslateX(scale*(dddo.x-offsetX));
-			child.setTranslateY(scale*(dddo.y-offsetY));
-			child.setTranslateZ(scale*(dddo.z-offsetZ));
+			child.setTranslateX(frame.x[idx]);
+			child.setTranslateY(frame.y[idx]);
+			child.setTranslateZ(frame.z[idx]);
 		}
 		return child;
 	}
 
-	private void updateNode(Node child, DDDObject dddo) {
-		float size = (float) (radiusScale * scale * dddo.size);
+	private void updateNode(Node child, DDDFrame frame, int idx, double radius) {
+		int type = frame.type[idx];
+		float size = (float) (radius * frame.size[idx]);
 		boolean doTranslate = true;
-		switch (dddo.type) {
+		switch (type) {
 		case 0,1,2,3: {
-			PhongMaterial mat = matColor[dddo.type];
+			PhongMaterial mat = matColor[type];
 			setColor(child, mat);
 			setBoxSize(child, size);
 			break;
 		}
 		case 10,11,12,13: {
-			PhongMaterial mat = matColor[dddo.type-10];
+			PhongMaterial mat = matColor[type-10];
 			setColor(child, mat);
 			setSphereSize(child, size);
 			break;
 		}
 		case 30,31,32,33: {
-			PhongMaterial mat = matColor[dddo.type-30];
+			PhongMaterial mat = matColor[type-30];
 			setColor(child, mat);
-			DDDLineObject line = (DDDLineObject)dddo;
-			Point3D from = new Point3D(scale*(line.x-offsetX), scale*(line.y-offsetY), scale*(line.z-offsetZ));
-			Point3D to = new Point3D(scale*(line.x2-offsetX), scale*(line.y2-offsetY), scale*(line.z2-offsetZ));
+			Point3D from = new Point3D(frame.x[idx], frame.y[idx], frame.z[idx]);
+			Point3D to = new Point3D(frame.x2[idx], frame.y2[idx], frame.z2[idx]);
 			setLineSizeAndPos(child, from, to, (float)(size));
 			doTranslate = false;
 			break;
 		}
 		default:
-			throw new RuntimeException("invalid type " + dddo.type);
+			throw new RuntimeException("invalid type " + type);
 		}
 		if (doTranslate) {
-			child.setTranslateX(scale*(dddo.x-offsetX));
-			child.setTranslateY(scale*(dddo.y-offsetY));
-			child.setTranslateZ(scale*(dddo.z-offsetZ));
+			child.setTranslateX(frame.x[idx]);
+			child.setTranslateY(frame.y[idx]);
+			child.setTranslateZ(frame.z[idx]);
 		}
 		child.setVisible(true);
 	}
 
 	
 	public void updateNodes(Group parentGroup, List<DDDObject> dddOs) {
+		DDDFrame frame = toFrame(dddOs);
+		slotMatcher.match(frame);
+		updateNodes(parentGroup, frame);
+	}
 
-		Set<String> missingNodeIDs = new HashSet<>(nodeInfos.keySet());
-		for (DDDObject dddo : dddOs) {
-			missingNodeIDs.remove(dddo.id);
-			NodeInfo nodeInfo = nodeInfos.get(dddo.id);
+	/**
+	 * only the properties which differ from the values a cached node was last updated with are set.
+	 */
+	public void updateNodes(Group parentGroup, DDDFrame frame) {
+		resetStats();
+		generation++;
+		int nextCount = 0;
+		for (int i=0; i<frame.count; i++) {
+			int id = frame.id[i];
+			NodeInfo nodeInfo = nodeInfo(id);
 			if (nodeInfo == null) {
-				Node child = createNode(dddo);
-				nodeInfos.put(dddo.id, new NodeInfo(dddo, child));
+				Node child = createNode(frame, i);
+				nodeInfo = new NodeInfo(id, child);
+				addNodeInfo(nodeInfo);
 				parentGroup.getChildren().add(child);
+				cacheMisses++;
+				statsCreated++;
 			}
 			else {
-				Node child = nodeInfo.node;
-				updateNode(child, dddo);
+				cacheHits++;
+				if (nodeInfo.hidden) {
+					lruUnlink(nodeInfo);
+				}
+				if (shapeKind(nodeInfo.type) != shapeKind(frame.type[i])) {
+					Node child = createNode(frame, i);
+					parentGroup.getChildren().set(parentGroup.getChildren().indexOf(nodeInfo.node), child);
+					recycle(nodeInfo.node, nodeInfo.type);
+					nodeInfo.node = child;
+					statsCreated++;
+				}
+				else if (updateChangedProperties(nodeInfo, frame, i)) {
+					statsChanged++;
+				}
+				else {
+					statsUnchanged++;
+				}
+			}
+			nodeInfo.remember(frame, i);
+			if (nodeInfo.lastSeen != generation) {
+				nodeInfo.lastSeen = generation;
+				if (nextCount == nextVisibleIds.length) {
+					nextVisibleIds = Arrays.copyOf(nextVisibleIds, 2*nextCount);
+				}
+				nextVisibleIds[nextCount++] = id;
 			}
 		}
-		for (String nodeID:missingNodeIDs) {
-			Node node = nodeInfos.get(nodeID).node;
-			node.setVisible(false);
+		// only the nodes visible before can become hidden
+		for (int i=0; i<visibleCount; i++) {
+			NodeInfo nodeInfo = nodeInfo(visibleIds[i]);
+			if ((nodeInfo.lastSeen != generation) && nodeInfo.node.isVisible()) {
+				nodeInfo.node.setVisible(false);
+				lruAppend(nodeInfo);
+				statsHidden++;
+			}
 		}
+		int[] swap = visibleIds;
+		visibleIds = nextVisibleIds;
+		nextVisibleIds = swap;
+		visibleCount = nextCount;
+		evictHiddenNodes(parentGroup);
 	}
 
+	private void lruAppend(NodeInfo nodeInfo) {
+		nodeInfo.hidden = true;
+		nodeInfo.lruPrev = lruTail;
+		nodeInfo.lruNext = null;
+		if (lruTail == null) {
+			lruHead = nodeInfo;
+		}
+		else {
+			lruTail.lruNext = nodeInfo;
+		}
+		lruTail = nodeInfo;
+	}
 
+	private void lruUnlink(NodeInfo nodeInfo) {
+		if (nodeInfo.lruPrev == null) {
+			lruHead = nodeInfo.lruNext;
+		}
+		else {
+			nodeInfo.lruPrev.lruNext = nodeInfo.lruNext;
+		}
+		if (nodeInfo.lruNext == null) {
+			lruTail = nodeInfo.lruPrev;
+		}
+		else {
+			nodeInfo.lruNext.lruPrev = nodeInfo.lruPrev;
+		}
+		nodeInfo.hidden = false;
+		nodeInfo.lruPrev = null;
+		nodeInfo.lruNext = null;
+	}
 
-    private int nextPage = -1;
+	/**
+	 * removes the least recently hidden nodes from the cache and the scene until the capacity is reached.
+	 */
+	private void evictHiddenNodes(Group parentGroup) {
+		int capacity = nodeCacheCapacity;
+		while ((cachedCount > capacity) && (lruHead != null)) {
+			NodeInfo nodeInfo = lruHead;
+			lruUnlink(nodeInfo);
+			removeNodeInfo(nodeInfo);
+			cacheEvictions++;
+			evictedNodes.add(nodeInfo.node);
+			recycle(nodeInfo.node, nodeInfo.type);
+		}
+		if (!evictedNodes.isEmpty()) {
+			// one pass over the children instead of one indexOf() per evicted node
+			parentGroup.getChildren().removeAll(evictedNodes);
+			evictedNodes.clear();
+		}
+	}
 
-    private synchronized void switchPage(int page) {
-    	if (nextPage == -1) {
-        	nextPage = page;
-        	Platform.runLater(() -> asyncSwitchPage());
-        	return;
-    	}
-    	nextPage = page;
+	private void recycle(Node node, int type) {
+		ArrayDeque<Node> pool = nodePools.get(poolIndex(type));
+		if (pool.size() < POOL_CAPACITY) {
+			pool.add(node);
+		}
+	}
+
+	/**
+	 * box, sphere and line nodes are recycled separately, lines are boxes with transforms.
+	 */
+	private static int poolIndex(int type) {
+		int kind = shapeKind(type);
+		return kind == 3 ? 2 : kind;
+	}
+
+	/**
+	 * box, sphere or line, a node can not change between them.
+	 */
+	private static int shapeKind(int type) {
+		return type / 10;
+	}
+
+	/**
+	 * @return false if the node already showed the object.
+	 */
+	private boolean updateChangedProperties(NodeInfo nodeInfo, DDDFrame frame, int idx) {
+		Node child = nodeInfo.node;
+		boolean changed = false;
+		int type = frame.type[idx];
+		if (nodeInfo.type != type) {
+			setColor(child, matColor[type%10]);
+			changed = true;
+		}
+		boolean sizeChanged = nodeInfo.size != frame.size[idx];
+		boolean posChanged = (nodeInfo.x != frame.x[idx]) || (nodeInfo.y != frame.y[idx]) || (nodeInfo.z != frame.z[idx]);
+		float size = (float) frame.size[idx];
+		if (DDDFrame.isLineType(type)) {
+			if (sizeChanged || posChanged || (nodeInfo.x2 != frame.x2[idx]) || (nodeInfo.y2 != frame.y2[idx]) || (nodeInfo.z2 != frame.z2[idx])) {
+				Point3D from = new Point3D(frame.x[idx], frame.y[idx], frame.z[idx]);
+				Point3D to = new Point3D(frame.x2[idx], frame.y2[idx], frame.z2[idx]);
+				setLineSizeAndPos(child, from, to, size);
+				changed = true;
+			}
+		}
+		else {
+			if (sizeChanged) {
+				if (shapeKind(type) == 0) {
+					setBoxSize(child, size);
+				}
+				else {
+					setSphereSize(child, size);
+				}
+				changed = true;
+			}
+			if (posChanged) {
+				child.setTranslateX(frame.x[idx]);
+				child.setTranslateY(frame.y[idx]);
+				child.setTranslateZ(frame.z[idx]);
+				changed = true;
+			}
+		}
+		if (!child.isVisible()) {
+			child.setVisible(true);
+			changed = true;
+		}
+		return changed;
+	}
+
+	private void resetStats() {
+		statsCreated = 0;
+		statsChanged = 0;
+		statsUnchanged = 0;
+		statsHidden = 0;
+	}
+
+	/**
+	 * what the last step switch did with the objects of the dynamic layer.
+	 */
+	public UpdateStats getLastUpdateStats() {
+		return lastUpdateStats;
+	}
+
+	/**
+	 * @return null if the object has no cached node.
+	 */
+	private NodeInfo nodeInfo(int id) {
+		return id < nodeInfos.length ? nodeInfos[id] : null;
+	}
+
+	/**
+	 * doubles nodeInfos for a new id, but not beyond the ids handed out by the registry.
+	 */
+	private void addNodeInfo(NodeInfo nodeInfo) {
+		int id = nodeInfo.id;
+		if (id >= nodeInfos.length) {
+			int newLength = Math.max(id+1, Math.min(2*nodeInfos.length, DDDIdRegistry.DEFAULT.size()));
+			nodeInfos = Arrays.copyOf(nodeInfos, newLength);
+		}
+		nodeInfos[id] = nodeInfo;
+		cachedCount++;
+	}
+
+	private void removeNodeInfo(NodeInfo nodeInfo) {
+		nodeInfos[nodeInfo.id] = null;
+		cachedCount--;
+	}
+
+	/**
+	 * adapter from the object based API to the primitive frame format.
+	 */
+	public static DDDFrame toFrame(List<DDDObject> dddOs) {
+		DDDFrame frame = new DDDFrame(dddOs.size());
+		for (DDDObject dddo : dddOs) {
+			int id = dddo.objectId;
+			if (dddo instanceof DDDLineObject) {
+				DDDLineObject line = (DDDLineObject) dddo;
+				frame.addLine(id, line.x, line.y, line.z, line.x2, line.y2, line.z2, line.size, line.type);
+			}
+			else {
+				frame.addPoint(id, dddo.x, dddo.y, dddo.z, dddo.size, dddo.type);
+			}
+		}
+		return frame;
+	}
+
+
+
+
+    /**
+     * can be called from any thread, the latest request wins.
+     */
+    private void switchPage(int page) {
+    	requestNanos = System.nanoTime();
+    	requestedStep.set(page);
+    	scheduleRender();
     }
 
-    
-    private synchronized void asyncSwitchPage() {
-    	int targetPage = Math.min(dddObjects.size()-1, Math.max(0, nextPage));
-    	if (currentStep != targetPage) {
-    		currentStep = targetPage;
-    		refreshCanvas();
-        	lbTextID.setText(Integer.toString(currentStep)+" "+dddTitles.get(currentStep));
-    	}
-    	nextPage = -1;
+	private void refreshCanvas() {
+		forceRender = true;
+		scheduleRender();
 	}
-    
-    	
-	private synchronized void refreshCanvas() {
-		if ((currentStep < 0) || (currentStep >= dddObjects.size())) {
+
+	/**
+	 * at most one render is queued, it picks up all requests made until it runs.
+	 */
+	private void scheduleRender() {
+		open();
+		if (renderScheduled.compareAndSet(false, true)) {
+			Platform.runLater(this::renderRequestedStep);
+		}
+	}
+
+	private void renderRequestedStep() {
+		// cleared first, so a request arriving while rendering queues a new render
+		renderScheduled.set(false);
+		boolean force = forceRender;
+		forceRender = false;
+		int stepCount = timeline.size();
+		int target = Math.min(stepCount-1, Math.max(timeline.getFirstStep(), requestedStep.get()));
+		if ((requestedStep.get() == -1) || (stepCount == 0)) {
+			updateStaticLayer();
+			return;
+		}
+		if ((target == currentStep) && !force) {
 			return;
 		}
-		List<DDDObject> dddo = dddObjects.get(currentStep);
-		updateScene(dddo);
+		int previousStep = currentStep;
+		currentStep = target;
+		SceneDiff diff = force ? null : readySceneDiff(target);
+		if (diff != null) {
+			applySceneDiff(diff);
+		}
+		else if ((renderMode == RenderMode.NODES) && !useCachedNodes) {
+			requestSceneBuild(target);
+		}
+		else {
+			updateSceneAsync(timeline.getFrame(target));
+		}
+		sceneStep = ((renderMode == RenderMode.NODES) && useCachedNodes) ? target : -1;
+		prefetchSceneDiffs(target, target - previousStep, stepCount);
+		lbTextID.setText(Integer.toString(target)+" "+timeline.getTitle(target));
+		timeline.markShown(target);
+		lastStepLatencyNanos = System.nanoTime() - requestNanos;
+		firstFrameShown();
 	}
 
-	private void updateScene(List<DDDObject> dddo) {
-		Platform.runLater(()->updateSceneAsync(dddo));
+	/**
+	 * 0 disables the precomputed diffs, all steps are then diffed on the JavaFX Application Thread.
+	 */
+	public void setPrefetchSteps(int prefetchSteps) {
+		this.prefetchSteps = Math.max(0, prefetchSteps);
+	}
+
+	/**
+	 * @return how many step switches used a precomputed diff and how many had to diff on the JavaFX Application Thread.
+	 */
+	public int[] getSceneDiffCounts() {
+		return new int[] {diffsApplied, diffsMissed};
+	}
+
+	private static class PrefetchedDiff {
+		final int baseStep;
+		final int targetStep;
+		final CompletableFuture<SceneDiff> future;
+		PrefetchedDiff(int baseStep, int targetStep, CompletableFuture<SceneDiff> future) {
+			this.baseStep = baseStep;
+			this.targetStep = targetStep;
+			this.future = future;
+		}
 	}
 
-	private void updateSceneAsync(List<DDDObject> dddo) {
-		if (useCachedNodes) {
-			updateNodes(currentScene, dddo);
+	/**
+	 * @return the diff from the shown step to the target step if a worker already computed it.
+	 */
+	private SceneDiff readySceneDiff(int target) {
+		if ((sceneStep == -1) || (renderMode != RenderMode.NODES) || !useCachedNodes) {
+			return null;
 		}
-		if (!useCachedNodes) {
-			nodeInfos.clear();
-			SmartGroup parentGroup = new SmartGroup();
-			updateNodes(parentGroup, dddo);
-			rootGroup.getChildren().remove(currentScene);
-			rootGroup.getChildren().add(parentGroup);
-			currentScene = parentGroup;
+		SceneDiff result = null;
+		for (PrefetchedDiff prefetched:sceneDiffs) {
+			CompletableFuture<SceneDiff> future = prefetched.future;
+			if ((prefetched.baseStep == sceneStep) && (prefetched.targetStep == target) && future.isDone() && !future.isCompletedExceptionally()) {
+				result = future.join();
+			}
+		}
+		if (result == null) {
+			diffsMissed++;
+		}
+		else {
+			diffsApplied++;
 		}
+		return result;
+	}
 
+	/**
+	 * the diffs start at the shown step, because a diff can only be applied to the step the nodes show.
+	 * While playing the targets are the steps the playback will show in the next pulses,
+	 * otherwise the steps which continue the last jump, so slider scrubbing and skipped steps are predicted too.
+	 * Diffs to other targets or from other steps are dropped.
+	 * @param jump difference between the shown step and the step shown before.
+	 */
+	private void prefetchSceneDiffs(int step, int jump, int stepCount) {
+		int count = prefetchSteps;
+		if ((count == 0) || (renderMode != RenderMode.NODES) || !useCachedNodes) {
+			for (PrefetchedDiff prefetched:sceneDiffs) {
+				prefetched.future.cancel(false);
+			}
+			sceneDiffs.clear();
+			return;
+		}
+		if (predictedSteps.length != count) {
+			predictedSteps = new int[count];
+		}
+		int cntPredicted = 0;
+		if ((playback != null) && playback.isPlaying()) {
+			for (int pulses=1; pulses<=count; pulses++) {
+				int predicted = playback.predictStep(step, pulses, stepCount);
+				if (predicted == -1) {
+					break;
+				}
+				if ((predicted != step) && !contains(predictedSteps, cntPredicted, predicted)) {
+					predictedSteps[cntPredicted++] = predicted;
+				}
+			}
+		}
+		else {
+			int stride = jump == 0 ? 1 : jump;
+			int first = timeline.getFirstStep();
+			for (int i=1; i<=count; i++) {
+				long predicted = step + (long) i*stride;
+				if ((predicted < first) || (predicted >= stepCount)) {
+					break;
+				}
+				predictedSteps[cntPredicted++] = (int) predicted;
+			}
+		}
+		for (int i=sceneDiffs.size()-1; i>=0; i--) {
+			PrefetchedDiff prefetched = sceneDiffs.get(i);
+			if ((prefetched.baseStep != step) || !contains(predictedSteps, cntPredicted, prefetched.targetStep)) {
+				prefetched.future.cancel(false);
+				sceneDiffs.remove(i);
+			}
+		}
+		for (int i=0; i<cntPredicted; i++) {
+			int target = predictedSteps[i];
+			if (!isPrefetched(step, target)) {
+				CompletableFuture<SceneDiff> future = CompletableFuture.supplyAsync(()->SceneDiff.compute(step, timeline.getFrame(step), target, timeline.getFrame(target)), diffWorkers());
+				sceneDiffs.add(new PrefetchedDiff(step, target, future));
+			}
+		}
+	}
+
+	private boolean isPrefetched(int baseStep, int targetStep) {
+		for (PrefetchedDiff prefetched:sceneDiffs) {
+			if ((prefetched.baseStep == baseStep) && (prefetched.targetStep == targetStep)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean contains(int[] values, int count, int value) {
+		for (int i=0; i<count; i++) {
+			if (values[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static synchronized ExecutorService diffWorkers() {
+		if (diffWorkers == null) {
+			int threads = Math.max(1, Runtime.getRuntime().availableProcessors()/2);
+			diffWorkers = Executors.newFixedThreadPool(threads, r -> {
+				Thread thread = new Thread(r, "scene-diff");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return diffWorkers;
+	}
+
+	/**
+	 * applies a diff computed by a worker, the dynamic layer has to show diff.baseStep.
+	 */
+	private void applySceneDiff(SceneDiff diff) {
+		long startNanos = System.nanoTime();
+		updateStaticLayer();
+		Group parentGroup = currentScene;
+		resetStats();
+		generation++;
+		for (int k=0; k<diff.count; k++) {
+			int id = diff.id[k];
+			NodeInfo nodeInfo = nodeInfo(id);
+			if (diff.op[k] == SceneDiff.HIDE) {
+				if ((nodeInfo != null) && nodeInfo.node.isVisible()) {
+					nodeInfo.node.setVisible(false);
+					lruAppend(nodeInfo);
+					statsHidden++;
+				}
+				continue;
+			}
+			int idx = diff.index[k];
+			int type = diff.target.type[idx];
+			if (nodeInfo == null) {
+				Node child = newNode(type);
+				applyPrimitives(child, type, diff, k, SceneDiff.ALL);
+				nodeInfo = new NodeInfo(id, child);
+				addNodeInfo(nodeInfo);
+				parentGroup.getChildren().add(child);
+				cacheMisses++;
+				statsCreated++;
+			}
+			else {
+				cacheHits++;
+				if (nodeInfo.hidden) {
+					lruUnlink(nodeInfo);
+				}
+				if (shapeKind(nodeInfo.type) != shapeKind(type)) {
+					Node child = newNode(type);
+					applyPrimitives(child, type, diff, k, SceneDiff.ALL);
+					parentGroup.getChildren().set(parentGroup.getChildren().indexOf(nodeInfo.node), child);
+					recycle(nodeInfo.node, nodeInfo.type);
+					nodeInfo.node = child;
+					statsCreated++;
+				}
+				else {
+					// a cached node may differ from the base step if it was hidden there
+					applyPrimitives(nodeInfo.node, type, diff, k, nodeInfo.node.isVisible() ? diff.mask[k] : SceneDiff.ALL);
+					statsChanged++;
+				}
+			}
+			nodeInfo.remember(diff.target, idx);
+		}
+		statsUnchanged = diff.unchanged;
+		DDDFrame target = diff.target;
+		if (nextVisibleIds.length < target.count) {
+			nextVisibleIds = new int[target.count];
+		}
+		System.arraycopy(target.id, 0, nextVisibleIds, 0, target.count);
+		int[] swap = visibleIds;
+		visibleIds = nextVisibleIds;
+		nextVisibleIds = swap;
+		visibleCount = target.count;
+		evictHiddenNodes(parentGroup);
+		finishUpdate(startNanos);
+	}
+
+	/**
+	 * an empty node of the shape of the type, taken from the recycling pool if possible.
+	 */
+	private Node newNode(int type) {
+		Node recycled = nodePools.get(poolIndex(type)).poll();
+		if (recycled != null) {
+			cacheRecycled++;
+			return recycled;
+		}
+		Node child;
+		switch (shapeKind(type)) {
+		case 0:
+			child = new Box();
+			child.getTransforms().add(radiusTransform);
+			break;
+		case 1:
+			child = new Sphere();
+			child.getTransforms().add(radiusTransform);
+			break;
+		case 3:
+			child = new Box();
+			child.getTransforms().addAll(new Translate(), new Rotate(), lineRadiusTransform);
+			break;
+		default:
+			throw new RuntimeException("invalid type " + type);
+		}
+		return child;
+	}
+
+	private void applyPrimitives(Node child, int type, SceneDiff diff, int k, int mask) {
+		if ((mask & SceneDiff.TYPE) != 0) {
+			setColor(child, matColor[type%10]);
+		}
+		float size = (float) diff.width[k];
+		if (DDDFrame.isLineType(type)) {
+			if ((mask & (SceneDiff.SIZE | SceneDiff.POSITION)) != 0) {
+				Box line = (Box) child;
+				Translate moveToMidpoint = (Translate) line.getTransforms().get(0);
+				moveToMidpoint.setX(diff.tx[k]);
+				moveToMidpoint.setY(diff.ty[k]);
+				moveToMidpoint.setZ(diff.tz[k]);
+				Rotate rotateAroundCenter = (Rotate) line.getTransforms().get(1);
+				rotateAroundCenter.setAngle(diff.angle[k]);
+				rotateAroundCenter.setAxis(new Point3D(diff.axisX[k], 0, diff.axisZ[k]));
+				line.setWidth(size);
+				line.setHeight(diff.height[k]);
+				line.setDepth(size);
+			}
+		}
+		else {
+			if ((mask & SceneDiff.SIZE) != 0) {
+				if (shapeKind(type) == 0) {
+					setBoxSize(child, size);
+				}
+				else {
+					setSphereSize(child, size);
+				}
+			}
+			if ((mask & SceneDiff.POSITION) != 0) {
+				child.setTranslateX(diff.tx[k]);
+				child.setTranslateY(diff.ty[k]);
+				child.setTranslateZ(diff.tz[k]);
+			}
+		}
+		if (!child.isVisible()) {
+			child.setVisible(true);
+		}
+	}
+
+	private void updateSceneAsync(DDDFrame frame) {
+		long startNanos = System.nanoTime();
+		updateStaticLayer();
+		if (renderMode == RenderMode.BATCHED) {
+			dynamicBatches.update(frame, false);
+			statsCreated = dynamicBatches.cntCreated;
+			statsChanged = dynamicBatches.cntChanged;
+			statsUnchanged = dynamicBatches.cntUnchanged;
+			statsHidden = dynamicBatches.cntHidden;
+		}
+		else {
+			updateNodes(currentScene, frame);
+		}
+		finishUpdate(startNanos);
+	}
+
+	/**
+	 * uncached mode: the newest requested step is built into a detached group by the scene builder thread.
+	 */
+	private void requestSceneBuild(int step) {
+		buildRadius = radiusScale;
+		buildTarget.set(step);
+		if (buildScheduled.compareAndSet(false, true)) {
+			sceneBuilder().execute(this::buildRequestedScene);
+		}
+	}
+
+	private static synchronized ExecutorService sceneBuilder() {
+		if (sceneBuilder == null) {
+			sceneBuilder = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "scene-builder");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return sceneBuilder;
+	}
+
+	/**
+	 * runs on the scene builder thread, the nodes are taken from the groups replaced before.
+	 */
+	private void buildRequestedScene() {
+		buildScheduled.set(false);
+		int step = buildTarget.get();
+		DDDFrame frame = timeline.getFrame(step);
+		double radius = buildRadius;
+		Node[] nodes = new Node[frame.count];
+		int created = 0;
+		for (int i=0; i<frame.count; i++) {
+			int type = frame.type[i];
+			Node recycled = ((type >= 0) && (type < 40)) ? builderPools.get(poolIndex(type)).poll() : null;
+			if (recycled != null) {
+				updateNode(recycled, frame, i, radius);
+				nodes[i] = recycled;
+			}
+			else {
+				nodes[i] = createShape(frame, i, radius);
+				created++;
+			}
+		}
+		SmartGroup group = new SmartGroup();
+		group.getChildren().addAll(nodes);
+		int recycledCount = frame.count - created;
+		int createdCount = created;
+		Platform.runLater(()->swapScene(group, radius, createdCount, recycledCount));
+	}
+
+	/**
+	 * O(1) on the JavaFX Application Thread, the replaced group goes back to the scene builder for recycling.
+	 */
+	private void swapScene(SmartGroup group, double radius, int created, int recycled) {
+		long startNanos = System.nanoTime();
+		if ((renderMode != RenderMode.NODES) || useCachedNodes) {
+			// built before the mode changed
+			sceneBuilder().execute(()->recycleGroup(group));
+			return;
+		}
+		updateStaticLayer();
+		addWorldTransforms(group);
+		SmartGroup replaced = currentScene;
+		rootGroup.getChildren().set(rootGroup.getChildren().indexOf(replaced), group);
+		currentScene = group;
+		builtRadius = radius;
+		replaced.getTransforms().clear();
+		sceneBuilder().execute(()->recycleGroup(replaced));
+		resetStats();
+		statsCreated = created;
+		statsChanged = recycled;
+		finishUpdate(startNanos);
+		lastStepLatencyNanos = System.nanoTime() - requestNanos;
+		firstFrameShown();
+	}
+
+	/**
+	 * runs on the scene builder thread, the group is no longer part of the scene.
+	 */
+	private void recycleGroup(SmartGroup group) {
+		for (Node node:group.getChildren()) {
+			List<Transform> transforms = node.getTransforms();
+			if (transforms.contains(radiusTransform) || transforms.contains(lineRadiusTransform)) {
+				// a node of the cached mode, it would get the radius twice
+				continue;
+			}
+			int pool;
+			if (node instanceof Sphere) {
+				pool = 1;
+			}
+			else {
+				// line boxes are the only nodes with own transforms in the uncached mode
+				pool = node.getTransforms().isEmpty() ? 0 : 2;
+			}
+			builderPools.get(pool).add(node);
+		}
+		group.getChildren().clear();
+	}
+
+	private void finishUpdate(long startNanos) {
+		lastUpdateNanos = System.nanoTime() - startNanos;
+		lastUpdateStats = new UpdateStats(statsCreated, statsChanged, statsUnchanged, statsHidden);
+		lastCacheStats = new CacheStats(cachedCount, nodeCacheCapacity, cacheHits, cacheMisses, cacheEvictions, cacheRecycled);
+	}
+
+	/**
+	 * time from the newest step request to the step being applied to the scene graph.
+	 */
+	public long getLastStepLatencyNanos() {
+		return lastStepLatencyNanos;
+	}
+
+	/**
+	 * public access to step switching, e.g. for benchmarks.
+	 */
+	public void showStep(int step) {
+		switchPage(step);
+	}
+
+	public int getStepCount() {
+		return timeline.size();
 	}
 
 	private void previous() {
-		switchPage(currentStep-1);
+		switchPage(Math.min(timeline.size()-1, requestedStep.get())-1);
 	}
 
 	private void next() {
-		switchPage(currentStep+1);
+		switchPage(Math.max(0, requestedStep.get())+1);
 	}
 
 	public void setScale(double scale) {
     	this.scale = scale;
-    	refreshCanvas();
+    	fitted = true;
+    	layoutChanged();
 	}
 
+	/**
+	 * fits the bounds selected by the fit mode, the bounds of the steps are kept by the timeline,
+	 * so no objects are scanned.
+	 */
 	public void adjustScale() {
-		if ((currentStep < 0) || (currentStep >= dddObjects.size())) {
-			return;
+		adjustScale(currentStep);
+	}
+
+	private void adjustScale(int step) {
+		DDDBounds bounds = new DDDBounds(staticBounds);
+		if ((step >= 0) && (step < timeline.size())) {
+			switch (fitMode) {
+			case CURRENT:
+				bounds.include(timeline.getBounds(step));
+				break;
+			case ALL:
+				bounds.include(timeline.getTotalBounds());
+				break;
+			case WINDOW:
+				bounds.include(timeline.getBounds(step-fitWindow+1, step));
+				break;
+			}
+		}
+		adjustScale(bounds);
+	}
+
+	public void setFitMode(FitMode fitMode) {
+		this.fitMode = fitMode;
+	}
+
+	public FitMode getFitMode() {
+		return fitMode;
+	}
+
+	/**
+	 * number of steps up to the current step fitted by FitMode.WINDOW.
+	 */
+	public void setFitWindow(int steps) {
+		this.fitWindow = Math.max(1, steps);
+	}
+
+	/**
+	 * if enabled, the scale is adjusted to the static layer or the first step,
+	 * unless the scale was already set by the caller.
+	 */
+	public void setAutoFit(boolean autoFit) {
+		this.autoFit = autoFit;
+	}
+
+	private void autoFit(int step) {
+		if (autoFit && !fitted) {
+			adjustScale(step);
 		}
-		adjustScale(dddObjects.get(currentStep));
 	}
 
 	public void adjustScale(List<DDDObject> dddOs) {
-		double minXValue = Double.POSITIVE_INFINITY;
-		double minYValue = Double.POSITIVE_INFINITY;
-		double minZValue = Double.POSITIVE_INFINITY;
-		double maxXValue = Double.NEGATIVE_INFINITY;
-		double maxYValue = Double.NEGATIVE_INFINITY;
-		double maxZValue = Double.NEGATIVE_INFINITY;
-		for (DDDObject dddo : dddOs) {
-			minXValue = Math.min(minXValue, dddo.x);
-			minYValue = Math.min(minYValue, dddo.y);
-			minZValue = Math.min(minZValue, dddo.z);
-			maxXValue = Math.max(maxXValue, dddo.x);
-			maxYValue = Math.max(maxYValue, dddo.y);
-			maxZValue = Math.max(maxZValue, dddo.z);
-		}
-		offsetX = (maxXValue + minXValue) / 2;
-		offsetY = (maxYValue + minYValue) / 2;
-		offsetZ = (maxZValue + minZValue) / 2;
-		double maxDiff = Math.max(maxXValue - minXValue, Math.max(maxYValue - minYValue, maxZValue - minZValue));
+		adjustScale(toFrame(dddOs));
+	}
+
+	public void adjustScale(DDDFrame frame) {
+		adjustScale(DDDBounds.of(frame));
+	}
+
+	public void adjustScale(DDDBounds bounds) {
+		if (bounds.isEmpty()) {
+			return;
+		}
+		fitted = true;
+		offsetX = bounds.getCenterX();
+		offsetY = bounds.getCenterY();
+		offsetZ = bounds.getCenterZ();
+		double maxDiff = bounds.getMaxExtent();
 		if (maxDiff == 0.0) {
 			maxDiff = 1.0;
 		}
 		this.scale = 2.0 / maxDiff;
 		scale = scale * 60;
-		refreshCanvas();
+		layoutChanged();
 	}
 
 	public void scaleUp() {
 		scale = 1.5*scale;
-		refreshCanvas();
+		fitted = true;
+		layoutChanged();
 	}
 
 	public void scaleDown() {
 		scale = scale/1.5;
-		refreshCanvas();
+		fitted = true;
+		layoutChanged();
 	}
 
 	public void addStep(String title, List<DDDObject> dddO) {
-		dddObjects.add(new ArrayList<>(dddO));
-		dddTitles.add(title);
-		if (currentStep != -1) {
+		addStep(title, toFrame(dddO));
+	}
+
+	/**
+	 * the frame is stored as it is, it must not be modified by the caller afterwards.
+	 * Anonymous ids in the frame are replaced according to the match mode.
+	 */
+	public void addStep(String title, DDDFrame frame) {
+		slotMatcher.match(frame);
+		if (recording != null) {
+			recording.append(title, frame);
+		}
+		timeline.add(title, frame);
+		if (requestedStep.get() != -1) {
 			return;
 		}
-		currentStep = dddObjects.size()-1;
-		refreshCanvas();
-		
+		autoFit(timeline.size()-1);
+		switchPage(timeline.size()-1);
 	}
 
 	private void smaller() {
 		radiusScale = 0.5 * radiusScale;
-		refreshCanvas();
+		layoutChanged();
 	}
 
 	private void bigger() {
 		radiusScale = 2 * radiusScale;
-		refreshCanvas();
+		layoutChanged();
 	}
 
-	class AnimationTask extends TimerTask {
-		@Override public void run() { asyncAnimation(); }
+	public int getCurrentStep() {
+		return currentStep;
 	}
-	
-	private synchronized void animation() {
-    	if (timer!= null) {
-    		timer.cancel();
-    		timer= null;
-    		return;
-    	}
-    	timer = new Timer();
-    	timer.scheduleAtFixedRate(new AnimationTask(), 250, 250);
+
+	/**
+	 * renders the step in the current pulse, called by the playback on the JavaFX Application Thread.
+	 */
+	void renderStep(int step) {
+		requestNanos = System.nanoTime();
+		requestedStep.set(step);
+		renderRequestedStep();
+		updatePlaybackLabel();
 	}
 
-	private synchronized void asyncAnimation() {
-		if (timer == null) {
-			return;
-		}
-		int page = currentStep + 1;
-		if (page >= dddObjects.size()) {
-			timer.cancel();
-			timer = null;
-			return;
-		}
-		switchPage(page);
+	/**
+	 * only available after the stage was started.
+	 */
+	public PlaybackEngine getPlayback() {
+		return playback;
+	}
+
+	private void updatePlaybackLabel() {
+		btPlay.setText(playback.isPlaying() ? "Pause" : "Play");
+		lbPlayback.setText(String.format("%.2f steps/s  %.1f fps  %d skipped", playback.getStepsPerSecond(), playback.getEffectiveFps(), playback.getSkippedSteps()));
 	}
 
 	private static Random random = new Random();
@@ -583,12 +1706,14 @@ public class GUIOutput3D extends Application {
 
     Stage primary;
     SmartGroup rootGroup;
+    SmartGroup staticScene;
     SmartGroup currentScene;
     SubScene rootScene;
     Label lbTextID;
     Slider slider;
-    Timer timer;
-    TimerTask timerTask;
+    PlaybackEngine playback;
+    Button btPlay;
+    Label lbPlayback;
     
 	@Override
 	public void start(Stage primaryStage) throws Exception {
@@ -629,13 +1754,30 @@ public class GUIOutput3D extends Application {
         	scaleDown();
         });
         
-        Button btAnimation = new Button("Animation");
-        btAnimation.setOnAction(ev -> {
-        	animation();
+        playback = new PlaybackEngine(this);
+        btPlay = new Button("Play");
+        btPlay.setOnAction(ev -> {
+        	playback.toggle();
+        	updatePlaybackLabel();
         });
+        Button btSlower = new Button("<<");
+        btSlower.setOnAction(ev -> {
+        	playback.slower();
+        	updatePlaybackLabel();
+        });
+        Button btFaster = new Button(">>");
+        btFaster.setOnAction(ev -> {
+        	playback.faster();
+        	updatePlaybackLabel();
+        });
+        CheckBox cbLoop = new CheckBox("Loop");
+        cbLoop.setOnAction(ev -> {
+        	playback.setLoop(cbLoop.isSelected());
+        });
+        lbPlayback = new Label();
 
 		lbTextID = new Label("0");
-		HBox buttons = new HBox(btPrevious, btNext, btSmaller, btBigger, btAdjustScale, btScaleUp, btScaleDown, btAnimation, lbTextID);
+		HBox buttons = new HBox(btPrevious, btNext, btSmaller, btBigger, btAdjustScale, btScaleUp, btScaleDown, btPlay, btSlower, btFaster, cbLoop, lbPlayback, lbTextID);
 		buttons.setSpacing(5);
 //		buttons.setPadding(new Insets(5));
 		
@@ -645,7 +1787,8 @@ public class GUIOutput3D extends Application {
             public void changed(ObservableValue<? extends Number> ov,
                     Number old_val, Number new_val) {
             	double percent = new_val.doubleValue() * 0.0001;
-            	int page = (int) (percent * (dddObjects.size()-1));
+            	int first = timeline.getFirstStep();
+            	int page = first + (int) (percent * (timeline.size()-1-first));
             	switchPage(page);
                 }
             });
@@ -666,11 +1809,17 @@ public class GUIOutput3D extends Application {
 		Group groupALL = new Group(vbox);
 		Scene scene = new Scene(groupALL);
 		
+		staticScene = new SmartGroup();
 		currentScene = new SmartGroup();
+		addWorldTransforms(staticScene);
+		addWorldTransforms(currentScene);
 //		Box box = new Box(10, 2, 5);
 //		currentScene.getChildren().add(box);
 	    rootGroup = group3D;
-	    rootGroup.getChildren().add(currentScene);
+	    rootGroup.getChildren().addAll(staticScene, currentScene);
+	    staticBatches = new BatchedLayer(staticScene);
+	    dynamicBatches = new BatchedLayer(currentScene);
+	    applyLayout();
         Camera camera = new PerspectiveCamera();
         rootScene = subScene3D;
         rootScene.setFill(Color.SILVER);
@@ -712,9 +1861,9 @@ public class GUIOutput3D extends Application {
         PhongMaterial mat = new PhongMaterial();
         mat.setDiffuseColor(col);
         mat.setSpecularColor(col);
-    	for (NodeInfo nodeInfo:nodeInfos.values()) {
-    		if (nodeInfo.node instanceof Shape3D) {
-    			((Shape3D)nodeInfo.node).setMaterial(mat);
+    	for (Node node:currentScene.getChildren()) {
+    		if (node instanceof Shape3D) {
+    			((Shape3D)node).setMaterial(mat);
     		}
     	}
 	}
@@ -750,6 +1899,132 @@ public class GUIOutput3D extends Application {
     }
 
 
+    /**
+     * the objects of one layer, rendered as one MeshBatch per type.
+     * Objects are keyed by their id or, for the static layer, by their index in the frame.
+     */
+    class BatchedLayer {
+    	final Group group;
+    	final MeshBatch[] batches;
+    	/** key -> type+1, 0 for unknown keys */
+    	int[] typeByKey;
+    	boolean[] seen;
+    	int[] keys;
+    	int keyCount;
+    	/** radiusScale the vertices were computed with */
+    	double radius = Double.NaN;
+    	/** what the last update did, kept per layer so the static layer does not touch the step stats */
+    	int cntCreated;
+    	int cntChanged;
+    	int cntUnchanged;
+    	int cntHidden;
+
+    	BatchedLayer(Group group) {
+    		this.group = group;
+    		this.batches = new MeshBatch[12];
+    		this.typeByKey = new int[16];
+    		this.seen = new boolean[16];
+    		this.keys = new int[16];
+    		this.keyCount = 0;
+    	}
+
+    	void update(DDDFrame frame, boolean keyByIndex) {
+    		boolean relayout = radius != radiusScale;
+    		radius = radiusScale;
+    		cntCreated = 0;
+    		cntChanged = 0;
+    		cntUnchanged = 0;
+    		cntHidden = 0;
+    		if (relayout) {
+    			for (MeshBatch batch:batches) {
+    				if (batch != null) {
+    					batch.invalidate();
+    				}
+    			}
+    		}
+    		for (int i=0; i<frame.count; i++) {
+    			int key = keyByIndex ? i : frame.id[i];
+    			int type = frame.type[i];
+    			ensureKeyCapacity(key);
+    			seen[key] = true;
+    			int oldType = typeByKey[key]-1;
+    			if (oldType == -1) {
+    				if (keyCount == keys.length) {
+    					keys = Arrays.copyOf(keys, 2*keys.length);
+    				}
+    				keys[keyCount++] = key;
+    				cntCreated++;
+    			}
+    			else if (oldType != type) {
+    				remove(key, oldType);
+    			}
+    			typeByKey[key] = type+1;
+    			double size = radiusScale * frame.size[i];
+    			boolean changed;
+    			if (DDDFrame.isLineType(type)) {
+    				changed = batch(type).setLine(key, frame.x[i], frame.y[i], frame.z[i],
+    						frame.x2[i], frame.y2[i], frame.z2[i], size);
+    			}
+    			else {
+    				changed = batch(type).set(key, frame.x[i], frame.y[i], frame.z[i], size);
+    			}
+    			if (oldType != -1) {
+    				if (changed || (oldType != type)) {
+    					cntChanged++;
+    				}
+    				else {
+    					cntUnchanged++;
+    				}
+    			}
+    		}
+    		int kept = 0;
+    		for (int k=0; k<keyCount; k++) {
+    			int key = keys[k];
+    			if (seen[key]) {
+    				seen[key] = false;
+    				keys[kept++] = key;
+    			}
+    			else {
+    				remove(key, typeByKey[key]-1);
+    				typeByKey[key] = 0;
+    				cntHidden++;
+    			}
+    		}
+    		keyCount = kept;
+    		for (MeshBatch batch:batches) {
+    			if (batch != null) {
+    				batch.flush();
+    			}
+    		}
+    	}
+
+    	private void remove(int key, int type) {
+    		batch(type).remove(key);
+    	}
+
+    	private MeshBatch batch(int type) {
+    		if ((type < 0) || (type > 33) || (type%10 > 3) || (type/10 == 2)) {
+    			throw new RuntimeException("invalid type " + type);
+    		}
+    		int idx = type < 10 ? type : (type < 30 ? type-10+4 : type-30+8);
+    		if (batches[idx] == null) {
+    			MeshBatch.Shape shape = type < 10 ? MeshBatch.BOX : (type < 30 ? MeshBatch.SPHERE : MeshBatch.LINE);
+    			batches[idx] = new MeshBatch(shape, matColor[type%10]);
+    			group.getChildren().add(batches[idx].getView());
+    		}
+    		return batches[idx];
+    	}
+
+    	private void ensureKeyCapacity(int key) {
+    		if (key >= typeByKey.length) {
+    			int newLength = Math.max(key+1, 2*typeByKey.length);
+    			typeByKey = Arrays.copyOf(typeByKey, newLength);
+    			seen = Arrays.copyOf(seen, newLength);
+    		}
+    	}
+    }
+
+
     class SmartGroup extends Group {
         Rotate r;
         Transform t = new Rotate();
@@ -778,38 +2053,89 @@ public class GUIOutput3D extends Application {
 		}
 	}
 
-	private synchronized void open() {
-		instance = null;
-		try {
-			Platform.runLater(()->{
-				Stage prim = new Stage();
-				try {
-					start(prim);
-				} catch (Exception e) {
-					throw new RuntimeException(e.toString(), e);
-				}
-				instance = this; 
-			});
+	/**
+	 * opens the window once, can be called from any thread and does not wait for the window, see whenShown().
+	 * Adding a step calls it, so it only has to be called to show the window before the first step.
+	 * Tasks posted to the JavaFX Application Thread afterwards run after start(), so they see the scene.
+	 */
+	public void open() {
+		if (opened) {
+			return;
 		}
-		catch (IllegalStateException tkEx) {
-			Platform.startup(()->{
-				Stage prim = new Stage();
-				try {
-					start(prim);
-				} catch (Exception e) {
-					throw new RuntimeException(e.toString(), e);
-				}
-				instance = this; 
-			});
+		synchronized (shown) {
+			if (opened) {
+				return;
+			}
+			postStart();
+			opened = true;
+		}
+	}
+
+	private void postStart() {
+		runOnFxThread(()->{
+			try {
+				start(new Stage());
+			} catch (Exception e) {
+				shown.completeExceptionally(e);
+				throw new RuntimeException(e.toString(), e);
+			}
+			shown.complete(this);
+		});
+	}
+
+	/**
+	 * starts the JavaFX toolkit with the first task, every viewer gets its own stage.
+	 */
+	private static synchronized void runOnFxThread(Runnable task) {
+		if (!toolkitStarted) {
+			toolkitStarted = true;
+			try {
+				Platform.startup(task);
+				return;
+			}
+			catch (IllegalStateException tkEx) {
+				// already started by someone else, e.g. Application.launch()
+			}
 		}
-		while (instance == null) {
-			System.out.println("WAIT");
-			sleep(500);
+		Platform.runLater(task);
+	}
+
+	/**
+	 * changes of the scene before the window is opened are picked up by start() and the first render.
+	 */
+	private void runIfOpen(Runnable task) {
+		if (opened) {
+			Platform.runLater(task);
+		}
+	}
+
+	private void firstFrameShown() {
+		if (timeToFirstFrameNanos == -1) {
+			timeToFirstFrameNanos = System.nanoTime() - createdNanos;
 		}
-		System.out.println("FOUND");		
+	}
+
+	/**
+	 * completes when the window is shown, it is opened by the first added step or by open().
+	 */
+	public CompletableFuture<GUIOutput3D> whenShown() {
+		return shown;
+	}
+
+	/**
+	 * @return nanos from the construction until the first step was rendered, -1 if none was rendered yet.
+	 */
+	public long getTimeToFirstFrameNanos() {
+		return timeToFirstFrameNanos;
 	}
 
 	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			GUIOutput3D viewer = new GUIOutput3D("Recording "+Path.of(args[0]).getFileName(), true);
+			long loadNanos = viewer.loadRecording(Path.of(args[0]));
+			System.out.println("LOADED: "+viewer.getStepCount()+" steps from "+args[0]+" in "+(loadNanos/1000000)+"ms");
+			return;
+		}
 		GUIOutput3D output = new GUIOutput3D("GUIOutput3D Test", true);
 		output.smaller();
 		
@@ -869,13 +2195,13 @@ public class GUIOutput3D extends Application {
 				i++;
 				int type = dddo.type<10 ? 0 : 10;
 				if (dddo.type <30) {
-					nextState.add(new DDDObject(dddo.id, dddo.x + rand() * 0.05, dddo.y + rand() * 0.05, dddo.z + rand() * 0.05,
+					nextState.add(new DDDObject(dddo.objectId, dddo.x + rand() * 0.05, dddo.y + rand() * 0.05, dddo.z + rand() * 0.05,
 							dddo.size + rand()*0.1 , type+((i/3)%4)));
 				}
 				else {
 					type = 30;
 					DDDLineObject dddol = (DDDLineObject) dddo;
-					nextState.add(new DDDLineObject(dddol.id, 
+					nextState.add(new DDDLineObject(dddol.objectId, 
 							dddol.x + rand() * 0.05, dddol.y + rand() * 0.05, dddol.z + rand() * 0.05,
 							dddol.x2 + rand() * 0.05, dddol.y2 + rand() * 0.05, dddol.z2 + rand() * 0.05,
 							dddol.size + rand()*0.01, type+((i)%4)));
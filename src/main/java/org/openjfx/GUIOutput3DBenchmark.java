@@ -0,0 +1,114 @@
+package org.openjfx;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+/**
+ * Compares the render modes of GUIOutput3D with a scene like the Day 22 cube:
+ * scene graph node count, time to apply a step on the JavaFX Application Thread and pulse interval.
+ * Needs a display with 3D support.
+ */
+public class GUIOutput3DBenchmark {
+
+	static final int CUBE_SIZE = 50;
+	static final int STEPS = 200;
+
+	static DDDFrame cubeWalls(Random random) {
+		DDDFrame frame = new DDDFrame();
+		double d = 0.5*(CUBE_SIZE+1);
+		for (int side=0; side<6; side++) {
+			for (int a=0; a<CUBE_SIZE; a++) {
+				for (int b=0; b<CUBE_SIZE; b++) {
+					if (random.nextInt(5) != 0) {
+						continue;
+					}
+					double u = a+1-d;
+					double v = b+1-d;
+					double w = (side%2 == 0) ? -d : d;
+					switch (side/2) {
+					case 0: frame.addPoint(DDDFrame.ANONYMOUS, u, v, w, 0.5, 0); break;
+					case 1: frame.addPoint(DDDFrame.ANONYMOUS, u, w, v, 0.5, 0); break;
+					default: frame.addPoint(DDDFrame.ANONYMOUS, w, u, v, 0.5, 0); break;
+					}
+				}
+			}
+		}
+		return frame;
+	}
+
+	static DDDFrame pathStep(int step) {
+		DDDFrame frame = new DDDFrame(step+1);
+		double d = 0.5*(CUBE_SIZE+1);
+		for (int i=0; i<=step; i++) {
+			double u = (i%CUBE_SIZE)+1-d;
+			double v = ((i/CUBE_SIZE)%CUBE_SIZE)+1-d;
+			frame.addPoint(DDDIdRegistry.DEFAULT.intern("path"+i), u, v, -d, 0.5, i == step ? 13 : 11);
+		}
+		return frame;
+	}
+
+	static void waitForFxThread() {
+		CountDownLatch latch = new CountDownLatch(1);
+		// a render mode switch queues the render of the current step from the FX thread
+		Platform.runLater(()->Platform.runLater(()->Platform.runLater(latch::countDown)));
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
+	static void run(GUIOutput3D.RenderMode mode) {
+		GUIOutput3D output = new GUIOutput3D("Benchmark "+mode, true);
+		output.setRenderMode(mode);
+		DDDFrame walls = cubeWalls(new Random(1));
+		output.setStaticLayer(walls);
+		for (int step=0; step<STEPS; step++) {
+			output.addStep("step "+step, pathStep(step));
+		}
+		// the first step opened the window
+		output.whenShown().join();
+		waitForFxThread();
+
+		long[] pulses = new long[2];
+		long[] lastPulse = {0};
+		AnimationTimer pulseTimer = new AnimationTimer() {
+			@Override public void handle(long now) {
+				if (lastPulse[0] != 0) {
+					pulses[0]++;
+					pulses[1] += now - lastPulse[0];
+				}
+				lastPulse[0] = now;
+			}
+		};
+		Platform.runLater(pulseTimer::start);
+		long updateNanos = 0;
+		long latencyNanos = 0;
+		long changed = 0;
+		long unchanged = 0;
+		long start = System.nanoTime();
+		for (int step=0; step<STEPS; step++) {
+			output.showStep(step);
+			waitForFxThread();
+			updateNanos += output.getLastUpdateNanos();
+			latencyNanos += output.getLastStepLatencyNanos();
+			changed += output.getLastUpdateStats().changed();
+			unchanged += output.getLastUpdateStats().unchanged();
+		}
+		long total = System.nanoTime() - start;
+		Platform.runLater(pulseTimer::stop);
+		waitForFxThread();
+		System.out.println(String.format("%-8s nodes=%6d  avg step update=%7.3fms  avg latency=%7.3fms  avg pulse=%7.3fms  total=%dms  first frame=%dms  changed=%d  unchanged=%d",
+				mode, output.getSceneNodeCount(), updateNanos/1e6/STEPS, latencyNanos/1e6/STEPS, pulses[0] == 0 ? 0.0 : pulses[1]/1e6/pulses[0], total/1000000, output.getTimeToFirstFrameNanos()/1000000, changed, unchanged));
+	}
+
+	public static void main(String[] args) {
+		for (GUIOutput3D.RenderMode mode:GUIOutput3D.RenderMode.values()) {
+			run(mode);
+		}
+		Platform.exit();
+	}
+}
@@ -0,0 +1,382 @@
+package org.openjfx;
+
+import java.util.Arrays;
+
+import javafx.scene.paint.PhongMaterial;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
+
+/**
+ * Renders many objects of the same shape and material as one MeshView.
+ * Each object owns a slot with a fixed range in the shared vertex buffer, objects are addressed by an int key.
+ * Only the vertex ranges of changed objects are written to the mesh, removed objects are collapsed
+ * to degenerate triangles and their slot is reused by the next new object.
+ * Batches of the LINE shape contain one square prism per line, stretched between the two end points.
+ * Must only be used on the JavaFX Application Thread.
+ */
+class MeshBatch {
+
+	/**
+	 * unit shape centered at the origin, one slot contains one copy of the shape.
+	 */
+	static class Shape {
+		final float[] points;
+		final int[] triangles;
+		final int[] smoothingGroups;
+		Shape(float[] points, int[] triangles, int[] smoothingGroups) {
+			this.points = points;
+			this.triangles = triangles;
+			this.smoothingGroups = smoothingGroups;
+			orientOutwards();
+		}
+		int vertices() {
+			return points.length / 3;
+		}
+		int faces() {
+			return triangles.length / 3;
+		}
+		/**
+		 * the shapes are convex and centered at the origin, so the front side of a triangle has to point away from it.
+		 */
+		private void orientOutwards() {
+			for (int t=0; t<triangles.length; t+=3) {
+				int a = 3*triangles[t];
+				int b = 3*triangles[t+1];
+				int c = 3*triangles[t+2];
+				float abx = points[b]-points[a], aby = points[b+1]-points[a+1], abz = points[b+2]-points[a+2];
+				float acx = points[c]-points[a], acy = points[c+1]-points[a+1], acz = points[c+2]-points[a+2];
+				float nx = aby*acz-abz*acy;
+				float ny = abz*acx-abx*acz;
+				float nz = abx*acy-aby*acx;
+				float cx = points[a]+points[b]+points[c];
+				float cy = points[a+1]+points[b+1]+points[c+1];
+				float cz = points[a+2]+points[b+2]+points[c+2];
+				if (nx*cx+ny*cy+nz*cz < 0) {
+					int tmp = triangles[t+1];
+					triangles[t+1] = triangles[t+2];
+					triangles[t+2] = tmp;
+				}
+			}
+		}
+	}
+
+	static final Shape BOX = createBox();
+	static final Shape SPHERE = createSphere(12, 8);
+	/** the unit box, y is mapped to the line direction */
+	static final Shape LINE = createBox();
+
+	private static Shape createBox() {
+		float d = 0.5f;
+		float[] points = {
+			-d, -d, -d,    d, -d, -d,    d,  d, -d,   -d,  d, -d,
+			-d, -d,  d,    d, -d,  d,    d,  d,  d,   -d,  d,  d
+		};
+		int[] triangles = {
+			0, 2, 1,   2, 0, 3,
+			1, 6, 5,   6, 1, 2,
+			5, 7, 4,   7, 5, 6,
+			4, 3, 0,   3, 4, 7,
+			3, 6, 2,   6, 3, 7,
+			4, 1, 5,   1, 4, 0
+		};
+		// flat sides
+		int[] smoothingGroups = { 1, 1, 2, 2, 4, 4, 8, 8, 16, 16, 32, 32 };
+		return new Shape(points, triangles, smoothingGroups);
+	}
+
+	private static Shape createSphere(int divisions, int rings) {
+		float r = 0.5f;
+		int vertices = 2 + divisions*(rings-1);
+		float[] points = new float[3*vertices];
+		points[1] = -r;
+		points[3*(vertices-1)+1] = r;
+		for (int ring=1; ring<rings; ring++) {
+			double phi = Math.PI * ring / rings;
+			for (int div=0; div<divisions; div++) {
+				double theta = 2 * Math.PI * div / divisions;
+				int p = 3*(1+(ring-1)*divisions+div);
+				points[p] = (float) (r*Math.sin(phi)*Math.cos(theta));
+				points[p+1] = (float) (-r*Math.cos(phi));
+				points[p+2] = (float) (r*Math.sin(phi)*Math.sin(theta));
+			}
+		}
+		int faces = 2*divisions*(rings-1);
+		int[] triangles = new int[3*faces];
+		int t = 0;
+		for (int div=0; div<divisions; div++) {
+			int next = (div+1) % divisions;
+			triangles[t++] = 0;
+			triangles[t++] = 1+div;
+			triangles[t++] = 1+next;
+			for (int ring=1; ring<rings-1; ring++) {
+				int a = 1+(ring-1)*divisions;
+				int b = 1+ring*divisions;
+				triangles[t++] = a+div;
+				triangles[t++] = b+div;
+				triangles[t++] = b+next;
+				triangles[t++] = a+div;
+				triangles[t++] = b+next;
+				triangles[t++] = a+next;
+			}
+			triangles[t++] = vertices-1;
+			triangles[t++] = 1+(rings-2)*divisions+next;
+			triangles[t++] = 1+(rings-2)*divisions+div;
+		}
+		int[] smoothingGroups = new int[faces];
+		Arrays.fill(smoothingGroups, 1);
+		return new Shape(points, triangles, smoothingGroups);
+	}
+
+	private final Shape shape;
+	/** number of doubles describing the geometry of one slot */
+	private final int stateSize;
+	private final TriangleMesh mesh;
+	private final MeshView view;
+
+	private float[] points;
+	/** per slot cx, cy, cz, size or x1, y1, z1, x2, y2, z2, width as last written, used to skip unchanged objects */
+	private double[] state;
+	/** key -> slot+1, 0 for keys without slot */
+	private int[] slotByKey;
+	private int[] freeSlots;
+	private int freeCount;
+	/** number of slots in the mesh, including the free ones */
+	private int slotCount;
+	private int meshSlotCount;
+	private int[] dirtySlots;
+	private int dirtyCount;
+	private boolean[] dirty;
+
+	MeshBatch(Shape shape, PhongMaterial material) {
+		this.shape = shape;
+		this.stateSize = (shape == LINE) ? 7 : 4;
+		this.mesh = new TriangleMesh();
+		this.mesh.getTexCoords().addAll(0, 0);
+		this.view = new MeshView(mesh);
+		this.view.setMaterial(material);
+		this.points = new float[16*3*shape.vertices()];
+		this.state = new double[16*stateSize];
+		this.dirty = new boolean[16];
+		this.dirtySlots = new int[16];
+		this.slotByKey = new int[16];
+		this.freeSlots = new int[16];
+		this.freeCount = 0;
+		this.slotCount = 0;
+		this.meshSlotCount = 0;
+		this.dirtyCount = 0;
+	}
+
+	MeshView getView() {
+		return view;
+	}
+
+	int size() {
+		return slotCount - freeCount;
+	}
+
+	int triangles() {
+		return meshSlotCount * shape.faces();
+	}
+
+	boolean contains(int key) {
+		return (key < slotByKey.length) && (slotByKey[key] != 0);
+	}
+
+	/**
+	 * places the shape scaled by size at (cx, cy, cz).
+	 * @return false if the object already had exactly this geometry.
+	 */
+	boolean set(int key, double cx, double cy, double cz, double size) {
+		int slot = slotOf(key);
+		int s = slot*stateSize;
+		if ((state[s] == cx) && (state[s+1] == cy) && (state[s+2] == cz) && (state[s+3] == size)) {
+			return false;
+		}
+		state[s] = cx;
+		state[s+1] = cy;
+		state[s+2] = cz;
+		state[s+3] = size;
+		float[] unit = shape.points;
+		int p = slot*unit.length;
+		for (int i=0; i<unit.length; i+=3) {
+			points[p+i] = (float) (cx + size*unit[i]);
+			points[p+i+1] = (float) (cy + size*unit[i+1]);
+			points[p+i+2] = (float) (cz + size*unit[i+2]);
+		}
+		markDirty(slot);
+		return true;
+	}
+
+	/**
+	 * places a square prism of the given width between the two end points, only for LINE batches.
+	 * @return false if the line already had exactly this geometry.
+	 */
+	boolean setLine(int key, double x1, double y1, double z1, double x2, double y2, double z2, double width) {
+		int slot = slotOf(key);
+		int s = slot*stateSize;
+		if ((state[s] == x1) && (state[s+1] == y1) && (state[s+2] == z1) && (state[s+3] == x2) && (state[s+4] == y2) && (state[s+5] == z2) && (state[s+6] == width)) {
+			return false;
+		}
+		state[s] = x1;
+		state[s+1] = y1;
+		state[s+2] = z1;
+		state[s+3] = x2;
+		state[s+4] = y2;
+		state[s+5] = z2;
+		state[s+6] = width;
+		// y axis of the unit box along the line, x and z axis perpendicular to it
+		double dx = x2-x1;
+		double dy = y2-y1;
+		double dz = z2-z1;
+		double length = Math.sqrt(dx*dx+dy*dy+dz*dz);
+		if (length == 0) {
+			dy = 1;
+		}
+		else {
+			dx /= length;
+			dy /= length;
+			dz /= length;
+		}
+		// u = d x (0,0,1) or d x (1,0,0) if d is (almost) parallel to z
+		double ux, uy, uz;
+		if (Math.abs(dz) < 0.9) {
+			ux = dy;
+			uy = -dx;
+			uz = 0;
+		}
+		else {
+			ux = 0;
+			uy = dz;
+			uz = -dy;
+		}
+		double uLength = Math.sqrt(ux*ux+uy*uy+uz*uz);
+		ux /= uLength;
+		uy /= uLength;
+		uz /= uLength;
+		// v = u x d, so (u, d, v) is oriented like (x, y, z)
+		double vx = uy*dz-uz*dy;
+		double vy = uz*dx-ux*dz;
+		double vz = ux*dy-uy*dx;
+		double mx = 0.5*(x1+x2);
+		double my = 0.5*(y1+y2);
+		double mz = 0.5*(z1+z2);
+		float[] unit = shape.points;
+		int p = slot*unit.length;
+		for (int i=0; i<unit.length; i+=3) {
+			double a = width*unit[i];
+			double b = length*unit[i+1];
+			double c = width*unit[i+2];
+			points[p+i] = (float) (mx + a*ux + b*dx + c*vx);
+			points[p+i+1] = (float) (my + a*uy + b*dy + c*vy);
+			points[p+i+2] = (float) (mz + a*uz + b*dz + c*vz);
+		}
+		markDirty(slot);
+		return true;
+	}
+
+	void remove(int key) {
+		if (!contains(key)) {
+			return;
+		}
+		int slot = slotByKey[key]-1;
+		slotByKey[key] = 0;
+		int p = slot*shape.points.length;
+		Arrays.fill(points, p, p+shape.points.length, 0f);
+		Arrays.fill(state, slot*stateSize, (slot+1)*stateSize, Double.NaN);
+		if (freeCount == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, 2*freeSlots.length);
+		}
+		freeSlots[freeCount++] = slot;
+		markDirty(slot);
+	}
+
+	/**
+	 * forces all objects to be rewritten by the next set() calls, e.g. after a scale change.
+	 */
+	void invalidate() {
+		for (int slot=0; slot<slotCount; slot++) {
+			state[slot*stateSize] = Double.NaN;
+		}
+	}
+
+	/**
+	 * pushes the vertex ranges of the changed slots to the TriangleMesh, neighbouring slots are written as one range.
+	 */
+	void flush() {
+		if (slotCount != meshSlotCount) {
+			int vertexFloats = slotCount*shape.points.length;
+			mesh.getPoints().setAll(points, 0, vertexFloats);
+			int[] faces = new int[slotCount*shape.triangles.length*2];
+			int[] smoothing = new int[slotCount*shape.faces()];
+			int f = 0;
+			int g = 0;
+			for (int slot=0; slot<slotCount; slot++) {
+				int base = slot*shape.vertices();
+				for (int t=0; t<shape.triangles.length; t++) {
+					faces[f++] = base+shape.triangles[t];
+					faces[f++] = 0;
+				}
+				System.arraycopy(shape.smoothingGroups, 0, smoothing, g, shape.smoothingGroups.length);
+				g += shape.smoothingGroups.length;
+			}
+			mesh.getFaces().setAll(faces);
+			mesh.getFaceSmoothingGroups().setAll(smoothing);
+			meshSlotCount = slotCount;
+		}
+		else if (dirtyCount > 0) {
+			Arrays.sort(dirtySlots, 0, dirtyCount);
+			int runStart = dirtySlots[0];
+			for (int i=1; i<=dirtyCount; i++) {
+				if ((i < dirtyCount) && (dirtySlots[i] == dirtySlots[i-1]+1)) {
+					continue;
+				}
+				int from = runStart*shape.points.length;
+				int length = (dirtySlots[i-1]-runStart+1)*shape.points.length;
+				mesh.getPoints().set(from, points, from, length);
+				if (i < dirtyCount) {
+					runStart = dirtySlots[i];
+				}
+			}
+		}
+		for (int i=0; i<dirtyCount; i++) {
+			dirty[dirtySlots[i]] = false;
+		}
+		dirtyCount = 0;
+	}
+
+	private int slotOf(int key) {
+		if (key >= slotByKey.length) {
+			slotByKey = Arrays.copyOf(slotByKey, Math.max(key+1, 2*slotByKey.length));
+		}
+		int slot = slotByKey[key]-1;
+		if (slot >= 0) {
+			return slot;
+		}
+		if (freeCount > 0) {
+			slot = freeSlots[--freeCount];
+		}
+		else {
+			slot = slotCount++;
+			if (slot == dirty.length) {
+				int capacity = 2*slot;
+				points = Arrays.copyOf(points, capacity*shape.points.length);
+				state = Arrays.copyOf(state, capacity*stateSize);
+				dirty = Arrays.copyOf(dirty, capacity);
+			}
+		}
+		Arrays.fill(state, slot*stateSize, (slot+1)*stateSize, Double.NaN);
+		slotByKey[key] = slot+1;
+		return slot;
+	}
+
+	private void markDirty(int slot) {
+		if (dirty[slot]) {
+			return;
+		}
+		dirty[slot] = true;
+		if (dirtyCount == dirtySlots.length) {
+			dirtySlots = Arrays.copyOf(dirtySlots, 2*dirtySlots.length);
+		}
+		dirtySlots[dirtyCount++] = slot;
+	}
+}
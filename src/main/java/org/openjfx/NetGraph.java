@@ -0,0 +1,73 @@
+package org.openjfx;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.openjfx.Y23Day08Animation3D.Node3D;
+import org.openjfx.Y23Day08Animation3D.Pos3D;
+
+/**
+ * The Day 08 net for the layout: positions in primitive arrays and the neighbours in compressed sparse rows,
+ * built once after all connections are added.
+ * The neighbours of node i are targets[first[i]] to targets[first[i+1]-1], in the order of Node3D.neighbours,
+ * so the layout sums the targets in the same order as before.
+ * The Node3D positions are only updated by syncNodes(), for showing them.
+ */
+class NetGraph {
+
+	/** the nodes in iteration order, node i has the position px[i], py[i], pz[i] */
+	final Node3D[] nodes;
+	final double[] px;
+	final double[] py;
+	final double[] pz;
+	final int[] first;
+	final int[] targets;
+	/** the positions changed since the last syncNodes() */
+	boolean moved;
+
+	NetGraph(Collection<Node3D> allNodes) {
+		int n = allNodes.size();
+		this.nodes = allNodes.toArray(new Node3D[n]);
+		this.px = new double[n];
+		this.py = new double[n];
+		this.pz = new double[n];
+		this.first = new int[n+1];
+		Map<Node3D, Integer> index = new IdentityHashMap<>();
+		int cntEdges = 0;
+		for (int i=0; i<n; i++) {
+			Node3D node = nodes[i];
+			index.put(node, i);
+			px[i] = node.pos.x();
+			py[i] = node.pos.y();
+			pz[i] = node.pos.z();
+			first[i] = cntEdges;
+			cntEdges += node.neighbours.size();
+		}
+		first[n] = cntEdges;
+		this.targets = new int[cntEdges];
+		int e = 0;
+		for (Node3D node:nodes) {
+			for (Node3D neighbour:node.neighbours) {
+				targets[e++] = index.get(neighbour);
+			}
+		}
+	}
+
+	int size() {
+		return nodes.length;
+	}
+
+	/**
+	 * writes the positions back into the nodes, if the layout moved them.
+	 */
+	void syncNodes() {
+		if (!moved) {
+			return;
+		}
+		for (int i=0; i<nodes.length; i++) {
+			nodes[i].pos = new Pos3D(px[i], py[i], pz[i]);
+		}
+		moved = false;
+	}
+}
@@ -0,0 +1,484 @@
+package org.openjfx;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.openjfx.Y23Day08Animation3D.Node3D;
+import org.openjfx.Y23Day08Animation3D.Pos3D;
+
+/**
+ * One iteration of the Day 08 net layout, shared by World and World2.
+ * Every node moves to the average of its targets: NET_DIST away from each neighbour
+ * and REPULSION_DIST away from each other node closer than that.
+ * All positions are computed from the old positions first, then all nodes move.
+ * Only nodes closer than REPULSION_DIST repel, so they are looked up in a uniform grid with that cell size
+ * instead of comparing all pairs. The targets are summed in the iteration order of the nodes,
+ * like in the all pairs loop, so both give the same positions to the last bit.
+ * Optionally all nodes also repel each other like charges, computed with a Barnes-Hut octree,
+ * this long range repulsion is added to the averaged target and spreads large graphs out.
+ * With a parallelism above 1 the nodes are moved in chunks on a ForkJoinPool. Every node is computed
+ * exactly like in the serial loop, only from the old positions, so the result does not depend on the parallelism.
+ * The layout works on the arrays of a NetGraph and allocates nothing per node. The version on Node3D and Pos3D
+ * is kept as reference for the benchmark, both give the same positions to the last bit.
+ */
+class NetLayout {
+
+	static final double REPULSION_DIST = Y23Day08Animation3D.NET_DIST/2;
+
+	public static final String CHARGE_PROPERTY = "layout.charge";
+	public static final String THETA_PROPERTY = "layout.theta";
+	public static final String PARALLELISM_PROPERTY = "layout.parallelism";
+	/** nodes per fork join task */
+	static final int CHUNK_SIZE = 256;
+	public static final double DEFAULT_THETA = 0.8;
+	/** the long range repulsion moves a node at most this far per iteration */
+	static final double MAX_CHARGE_MOVE = Y23Day08Animation3D.NET_DIST;
+
+	private static final int CELL_BITS = 21;
+	private static final long CELL_MASK = (1L << CELL_BITS) - 1;
+
+	/** the graph of the current iteration, null in move3DNodesRecords() */
+	private NetGraph graph;
+	/** the nodes in iteration order, only in move3DNodesRecords() */
+	private Node3D[] nodes = new Node3D[0];
+	/** the positions of the current iteration, the arrays of the graph or nodeX, nodeY, nodeZ */
+	private double[] px;
+	private double[] py;
+	private double[] pz;
+	/** the new positions, written by the chunks */
+	private double[] nx = new double[0];
+	private double[] ny = new double[0];
+	private double[] nz = new double[0];
+	/** copies of the Node3D positions in move3DNodesRecords() */
+	private double[] nodeX = new double[0];
+	private double[] nodeY = new double[0];
+	private double[] nodeZ = new double[0];
+	private long[] cellOfNode = new long[0];
+	/** open addressing: cell -> first node in the cell, nodes in one cell are linked in ascending order */
+	private long[] cellKeys = new long[0];
+	private int[] cellFirst = new int[0];
+	private int[] nextInCell = new int[0];
+
+	/** 0 disables the long range repulsion */
+	private double charge;
+	private double theta;
+	private final Octree octree = new Octree();
+
+	/** null for the serial loop */
+	private ForkJoinPool pool;
+	/** the scratch arrays of each chunk, kept between iterations */
+	private Chunk[] chunks = new Chunk[0];
+
+	static class Chunk {
+		int[] candidates = new int[16];
+		final double[] force = new double[3];
+		final Octree.Stack stack = new Octree.Stack();
+	}
+
+	public NetLayout() {
+		this.charge = 0.0;
+		this.theta = DEFAULT_THETA;
+	}
+
+	/**
+	 * the long range repulsion is configured by the system properties "layout.charge" and "layout.theta", off by default,
+	 * "layout.parallelism" sets the number of threads, 1 by default.
+	 */
+	public static NetLayout create() {
+		NetLayout result = new NetLayout();
+		result.setLongRangeRepulsion(Double.parseDouble(System.getProperty(CHARGE_PROPERTY, "0")), Double.parseDouble(System.getProperty(THETA_PROPERTY, Double.toString(DEFAULT_THETA))));
+		result.setParallelism(Integer.parseInt(System.getProperty(PARALLELISM_PROPERTY, "1")));
+		return result;
+	}
+
+	/**
+	 * 1 runs the serial loop on the calling thread, otherwise the nodes are moved by a pool with that many threads,
+	 * which runs until close() or the next call.
+	 */
+	public void setParallelism(int parallelism) {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		if (parallelism > 1) {
+			pool = new ForkJoinPool(parallelism);
+		}
+	}
+
+	/**
+	 * stops the threads of the pool, a closed layout can still be used with the serial loop.
+	 */
+	public void close() {
+		setParallelism(1);
+	}
+
+	public int getParallelism() {
+		return pool == null ? 1 : pool.getParallelism();
+	}
+
+	/**
+	 * @param charge a node at distance d pushes another node by charge/(d*d) per iteration, 0 disables it.
+	 * @param theta cells smaller than theta times their distance count as one charge, 0 is exact.
+	 */
+	public void setLongRangeRepulsion(double charge, double theta) {
+		this.charge = Math.max(0.0, charge);
+		this.theta = Math.max(0.0, theta);
+	}
+
+	public void move3DNodes(NetGraph graph) {
+		int n = graph.size();
+		this.graph = graph;
+		this.px = graph.px;
+		this.py = graph.py;
+		this.pz = graph.pz;
+		if (nx.length < n) {
+			nx = new double[n];
+			ny = new double[n];
+			nz = new double[n];
+		}
+		moveChunks(n);
+		System.arraycopy(nx, 0, graph.px, 0, n);
+		System.arraycopy(ny, 0, graph.py, 0, n);
+		System.arraycopy(nz, 0, graph.pz, 0, n);
+		graph.moved = true;
+		this.graph = null;
+	}
+
+	/**
+	 * the same iteration on the Node3D objects with Pos3D records, kept as reference for the benchmark.
+	 */
+	public void move3DNodesRecords(Collection<Node3D> allNodes) {
+		int n = allNodes.size();
+		if (nodes.length < n) {
+			nodes = new Node3D[n];
+			nodeX = new double[n];
+			nodeY = new double[n];
+			nodeZ = new double[n];
+		}
+		int i = 0;
+		for (Node3D node:allNodes) {
+			nodes[i] = node;
+			nodeX[i] = node.pos.x();
+			nodeY[i] = node.pos.y();
+			nodeZ[i] = node.pos.z();
+			i++;
+		}
+		this.px = nodeX;
+		this.py = nodeY;
+		this.pz = nodeZ;
+		moveChunks(n);
+		for (i=0; i<n; i++) {
+			nodes[i].pos = nodes[i].newPos;
+		}
+	}
+
+	private void moveChunks(int n) {
+		buildGrid(n);
+		if (charge > 0) {
+			octree.build(px, py, pz, n);
+		}
+		int cntChunks = (n+CHUNK_SIZE-1)/CHUNK_SIZE;
+		if (chunks.length < cntChunks) {
+			int old = chunks.length;
+			chunks = Arrays.copyOf(chunks, cntChunks);
+			for (int c=old; c<cntChunks; c++) {
+				chunks[c] = new Chunk();
+			}
+		}
+		if ((pool == null) || (cntChunks <= 1)) {
+			for (int c=0; c<cntChunks; c++) {
+				moveChunk(c, n);
+			}
+		}
+		else {
+			pool.invoke(new ChunkTask(0, cntChunks, n));
+		}
+	}
+
+	/**
+	 * splits the chunks in halves until one is left.
+	 */
+	private class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final int from;
+		final int to;
+		final int n;
+		ChunkTask(int from, int to, int n) {
+			this.from = from;
+			this.to = to;
+			this.n = n;
+		}
+		@Override
+		protected void compute() {
+			if (to-from == 1) {
+				moveChunk(from, n);
+				return;
+			}
+			int mid = (from+to) >>> 1;
+			invokeAll(new ChunkTask(from, mid, n), new ChunkTask(mid, to, n));
+		}
+	}
+
+	/**
+	 * only writes the new positions of the nodes in the chunk and the scratch arrays of the chunk.
+	 */
+	private void moveChunk(int c, int n) {
+		if (graph == null) {
+			moveChunkRecords(c, n);
+			return;
+		}
+		Chunk chunk = chunks[c];
+		double[] force = chunk.force;
+		int[] first = graph.first;
+		int[] targets = graph.targets;
+		int end = Math.min(n, (c+1)*CHUNK_SIZE);
+		for (int i=c*CHUNK_SIZE; i<end; i++) {
+			double x = px[i];
+			double y = py[i];
+			double z = pz[i];
+			double sumX = 0;
+			double sumY = 0;
+			double sumZ = 0;
+			// the same operations in the same order as with Pos3D, see neighbourTargets() and repulsionTarget()
+			for (int e=first[i]; e<first[i+1]; e++) {
+				int j = targets[e];
+				double vx = px[j]-x;
+				double vy = py[j]-y;
+				double vz = pz[j]-z;
+				double dist = Math.sqrt(vx*vx+vy*vy+vz*vz);
+				double f = (dist-Y23Day08Animation3D.NET_DIST)*0.5;
+				if (dist != 0) {
+					double inv = 1/dist;
+					vx = vx*inv;
+					vy = vy*inv;
+					vz = vz*inv;
+				}
+				sumX += x+vx*f;
+				sumY += y+vy*f;
+				sumZ += z+vz*f;
+			}
+			int cntTargets = first[i+1]-first[i];
+			int cntCandidates = collectCandidates(x, y, z, chunk);
+			int[] candidates = chunk.candidates;
+			Arrays.sort(candidates, 0, cntCandidates);
+			for (int k=0; k<cntCandidates; k++) {
+				int j = candidates[k];
+				if (j == i) {
+					continue;
+				}
+				double vx = px[j]-x;
+				double vy = py[j]-y;
+				double vz = pz[j]-z;
+				double dist = Math.sqrt(vx*vx+vy*vy+vz*vz);
+				if (dist<REPULSION_DIST) {
+					double f = 0.5*(dist-REPULSION_DIST);
+					if (dist != 0) {
+						double inv = 1/dist;
+						vx = vx*inv;
+						vy = vy*inv;
+						vz = vz*inv;
+					}
+					sumX += x+vx*f;
+					sumY += y+vy*f;
+					sumZ += z+vz*f;
+					cntTargets++;
+				}
+			}
+			double factor = 1.0/cntTargets;
+			nx[i] = sumX*factor;
+			ny[i] = sumY*factor;
+			nz[i] = sumZ*factor;
+			if (charge > 0) {
+				chargeForce(i, chunk);
+				nx[i] += force[0];
+				ny[i] += force[1];
+				nz[i] += force[2];
+			}
+		}
+	}
+
+	private void moveChunkRecords(int c, int n) {
+		Chunk chunk = chunks[c];
+		int end = Math.min(n, (c+1)*CHUNK_SIZE);
+		for (int i=c*CHUNK_SIZE; i<end; i++) {
+			Node3D node = nodes[i];
+			Pos3D sum = neighbourTargets(node);
+			int cntTargets = node.neighbours.size();
+			int cntCandidates = collectCandidates(px[i], py[i], pz[i], chunk);
+			int[] candidates = chunk.candidates;
+			Arrays.sort(candidates, 0, cntCandidates);
+			for (int k=0; k<cntCandidates; k++) {
+				Node3D otherNode = nodes[candidates[k]];
+				if (otherNode == node) {
+					continue;
+				}
+				Pos3D vect = otherNode.pos.subtract(node.pos);
+				double dist = vect.magnitude();
+				if (dist<REPULSION_DIST) {
+					sum = sum.add(repulsionTarget(node, vect, dist));
+					cntTargets++;
+				}
+			}
+			node.newPos = sum.multiply(1.0/cntTargets);
+			if (charge > 0) {
+				chargeForce(i, chunk);
+				node.newPos = node.newPos.add(new Pos3D(chunk.force[0], chunk.force[1], chunk.force[2]));
+			}
+		}
+	}
+
+	/**
+	 * the original loop over all pairs, kept as reference for the benchmark.
+	 */
+	public static void move3DNodesAllPairs(Collection<Node3D> allNodes) {
+		for (Node3D node:allNodes) {
+			Pos3D sum = neighbourTargets(node);
+			int cntTargets = node.neighbours.size();
+			for (Node3D otherNode:allNodes) {
+				if (otherNode == node) {
+					continue;
+				}
+				Pos3D vect = otherNode.pos.subtract(node.pos);
+				double dist = vect.magnitude();
+				if (dist<REPULSION_DIST) {
+					sum = sum.add(repulsionTarget(node, vect, dist));
+					cntTargets++;
+				}
+			}
+			node.newPos = sum.multiply(1.0/cntTargets);
+		}
+		for (Node3D node:allNodes) {
+			node.pos = node.newPos;
+		}
+	}
+
+	/**
+	 * the move by the long range repulsion, left in the force of the chunk.
+	 */
+	private void chargeForce(int i, Chunk chunk) {
+		double[] force = chunk.force;
+		force[0] = 0;
+		force[1] = 0;
+		force[2] = 0;
+		octree.addRepulsion(i, theta, REPULSION_DIST*REPULSION_DIST, force, chunk.stack);
+		double fx = charge*force[0];
+		double fy = charge*force[1];
+		double fz = charge*force[2];
+		double move = Math.sqrt(fx*fx+fy*fy+fz*fz);
+		if (move > MAX_CHARGE_MOVE) {
+			double f = MAX_CHARGE_MOVE/move;
+			fx *= f;
+			fy *= f;
+			fz *= f;
+		}
+		force[0] = fx;
+		force[1] = fy;
+		force[2] = fz;
+	}
+
+	private static Pos3D neighbourTargets(Node3D node) {
+		Pos3D sum = new Pos3D(0,0,0);
+		for (Node3D neighbour:node.neighbours) {
+			Pos3D vect = neighbour.pos.subtract(node.pos);
+			double dist = vect.magnitude();
+			double move = dist-Y23Day08Animation3D.NET_DIST;
+			Pos3D mVect = vect.normalize().multiply(move*0.5);
+			sum = sum.add(node.pos.add(mVect));
+		}
+		return sum;
+	}
+
+	private static Pos3D repulsionTarget(Node3D node, Pos3D vect, double dist) {
+		double move = dist-REPULSION_DIST;
+		Pos3D mVect = vect.normalize().multiply(0.5*move);
+		return node.pos.add(mVect);
+	}
+
+	/**
+	 * a distance below REPULSION_DIST is also below it on each axis, so both nodes are in the same or in adjacent cells.
+	 */
+	private static long cell(double v) {
+		return ((long) Math.floor(v / REPULSION_DIST)) & CELL_MASK;
+	}
+
+	private static long cellKey(long cx, long cy, long cz) {
+		return ((cx & CELL_MASK) << (2*CELL_BITS)) | ((cy & CELL_MASK) << CELL_BITS) | (cz & CELL_MASK);
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private void buildGrid(int n) {
+		if (cellOfNode.length < n) {
+			cellOfNode = new long[n];
+			nextInCell = new int[n];
+		}
+		int tableSize = Integer.highestOneBit(Math.max(16, 2*n))*2;
+		if (cellKeys.length != tableSize) {
+			cellKeys = new long[tableSize];
+			cellFirst = new int[tableSize];
+		}
+		Arrays.fill(cellFirst, -1);
+		for (int i=0; i<n; i++) {
+			cellOfNode[i] = cellKey(cell(px[i]), cell(py[i]), cell(pz[i]));
+		}
+		// inserted backwards at the head, so each cell lists its nodes in ascending order
+		for (int i=n-1; i>=0; i--) {
+			int slot = slot(cellOfNode[i], true);
+			nextInCell[i] = cellFirst[slot];
+			cellFirst[slot] = i;
+		}
+	}
+
+	/**
+	 * @return -1 for an unknown cell if create is false.
+	 */
+	private int slot(long key, boolean create) {
+		int mask = cellKeys.length-1;
+		int slot = hash(key) & mask;
+		while (cellFirst[slot] != -1) {
+			if (cellKeys[slot] == key) {
+				return slot;
+			}
+			slot = (slot+1) & mask;
+		}
+		if (!create) {
+			return -1;
+		}
+		cellKeys[slot] = key;
+		return slot;
+	}
+
+	/**
+	 * the nodes of the 27 cells around the position, unsorted.
+	 */
+	private int collectCandidates(double x, double y, double z, Chunk chunk) {
+		int[] candidates = chunk.candidates;
+		long cx = cell(x);
+		long cy = cell(y);
+		long cz = cell(z);
+		int count = 0;
+		for (long dx=-1; dx<=1; dx++) {
+			for (long dy=-1; dy<=1; dy++) {
+				for (long dz=-1; dz<=1; dz++) {
+					int slot = slot(cellKey(cx+dx, cy+dy, cz+dz), false);
+					if (slot == -1) {
+						continue;
+					}
+					for (int idx=cellFirst[slot]; idx!=-1; idx=nextInCell[idx]) {
+						if (count == candidates.length) {
+							candidates = Arrays.copyOf(candidates, 2*count);
+							chunk.candidates = candidates;
+						}
+						candidates[count++] = idx;
+					}
+				}
+			}
+		}
+		return count;
+	}
+}
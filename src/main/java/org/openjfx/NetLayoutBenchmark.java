@@ -0,0 +1,222 @@
+package org.openjfx;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.openjfx.Y23Day08Animation3D.Node3D;
+import org.openjfx.Y23Day08Animation3D.Pos3D;
+
+/**
+ * Compares the grid based layout iteration with the all pairs loop,
+ * on the bundled Day 08 input and on synthetic graphs where every node has a left and a right child like in Day 08.
+ * Both run on copies of the same graph and have to end with the same positions to the last bit.
+ * The long range repulsion is measured for several theta, the error is the mean distance to the exact positions (theta 0).
+ * The scaling run moves the same graph with 1 to N threads, every run has to end with the positions of the serial run.
+ * The layout on the arrays of a NetGraph is compared with the same layout on Node3D and Pos3D records.
+ */
+public class NetLayoutBenchmark {
+
+	static final int[] SYNTHETIC_SIZES = {1000, 10000, 100000};
+	static final int SYNTHETIC_ITERATIONS = 5;
+	/** the all pairs loop is only run on graphs up to this size */
+	static final int MAX_ALL_PAIRS_SIZE = 10000;
+	static final double BENCHMARK_CHARGE = Y23Day08Animation3D.NET_DIST*Y23Day08Animation3D.NET_DIST*Y23Day08Animation3D.NET_DIST;
+	static final double[] THETAS = {0.5, 0.8, 1.2};
+	static final int SCALING_SIZE = 100000;
+
+	static Map<String, Node3D> copy(Map<String, Node3D> nodes3D) {
+		Map<String, Node3D> result = new LinkedHashMap<>();
+		for (Node3D node:nodes3D.values()) {
+			result.put(node.name, new Node3D(node.name, node.pos));
+		}
+		for (Node3D node:nodes3D.values()) {
+			Node3D copy = result.get(node.name);
+			for (Node3D neighbour:node.neighbours) {
+				copy.addConnection(result.get(neighbour.name));
+			}
+		}
+		return result;
+	}
+
+	static Map<String, Node3D> syntheticGraph(int size, Random random) {
+		// about NET_DIST between the nodes, like a finished layout
+		double edge = Y23Day08Animation3D.NET_DIST * Math.cbrt(size);
+		List<Node3D> nodes = new ArrayList<>();
+		Map<String, Node3D> result = new LinkedHashMap<>();
+		for (int i=0; i<size; i++) {
+			Node3D node = new Node3D("N"+i, new Pos3D(random.nextDouble()*edge, random.nextDouble()*edge, random.nextDouble()*edge));
+			nodes.add(node);
+			result.put(node.name, node);
+		}
+		for (Node3D node:nodes) {
+			for (int child=0; child<2; child++) {
+				Node3D other = nodes.get(random.nextInt(size));
+				node.addConnection(other);
+				other.addConnection(node);
+			}
+		}
+		return result;
+	}
+
+	static boolean samePositions(Collection<Node3D> nodes1, Collection<Node3D> nodes2) {
+		List<Node3D> list2 = new ArrayList<>(nodes2);
+		int i = 0;
+		for (Node3D node:nodes1) {
+			Pos3D p1 = node.pos;
+			Pos3D p2 = list2.get(i++).pos;
+			if ((Double.doubleToLongBits(p1.x()) != Double.doubleToLongBits(p2.x())) ||
+					(Double.doubleToLongBits(p1.y()) != Double.doubleToLongBits(p2.y())) ||
+					(Double.doubleToLongBits(p1.z()) != Double.doubleToLongBits(p2.z()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the time of the iterations, without building the graph.
+	 */
+	static long move(NetLayout layout, Map<String, Node3D> nodes, int iterations) {
+		NetGraph graph = new NetGraph(nodes.values());
+		long start = System.nanoTime();
+		for (int n=0; n<iterations; n++) {
+			layout.move3DNodes(graph);
+		}
+		long result = System.nanoTime() - start;
+		graph.syncNodes();
+		return result;
+	}
+
+	static void run(String name, Map<String, Node3D> nodes3D, int iterations, boolean allPairs) {
+		Map<String, Node3D> gridNodes = copy(nodes3D);
+		long gridNanos = move(new NetLayout(), gridNodes, iterations);
+		if (!allPairs) {
+			System.out.println(String.format("%-16s nodes=%6d  iterations=%3d  grid=%8.1fms  all pairs skipped",
+					name, nodes3D.size(), iterations, gridNanos/1e6));
+			return;
+		}
+		Map<String, Node3D> allPairsNodes = copy(nodes3D);
+		long start = System.nanoTime();
+		for (int n=0; n<iterations; n++) {
+			NetLayout.move3DNodesAllPairs(allPairsNodes.values());
+		}
+		long allPairsNanos = System.nanoTime() - start;
+		System.out.println(String.format("%-16s nodes=%6d  iterations=%3d  grid=%8.1fms  all pairs=%9.1fms  speedup=%6.1f  identical=%b",
+				name, nodes3D.size(), iterations, gridNanos/1e6, allPairsNanos/1e6, (double) allPairsNanos/gridNanos,
+				samePositions(gridNodes.values(), allPairsNodes.values())));
+	}
+
+	static long runCharged(Map<String, Node3D> nodes, double theta, int iterations) {
+		NetLayout layout = new NetLayout();
+		layout.setLongRangeRepulsion(BENCHMARK_CHARGE, theta);
+		return move(layout, nodes, iterations);
+	}
+
+	static double meanDistance(Collection<Node3D> nodes1, Collection<Node3D> nodes2) {
+		List<Node3D> list2 = new ArrayList<>(nodes2);
+		double sum = 0;
+		int i = 0;
+		for (Node3D node:nodes1) {
+			sum += node.pos.subtract(list2.get(i++).pos).magnitude();
+		}
+		return sum / nodes1.size();
+	}
+
+	static void runBarnesHut(String name, Map<String, Node3D> nodes3D, int iterations, boolean exact) {
+		Map<String, Node3D> exactNodes = null;
+		StringBuilder line = new StringBuilder(String.format("%-16s nodes=%6d  iterations=%3d", name, nodes3D.size(), iterations));
+		if (exact) {
+			exactNodes = copy(nodes3D);
+			line.append(String.format("  exact=%9.1fms", runCharged(exactNodes, 0.0, iterations)/1e6));
+		}
+		for (double theta:THETAS) {
+			Map<String, Node3D> nodes = copy(nodes3D);
+			line.append(String.format("  theta %.1f=%8.1fms", theta, runCharged(nodes, theta, iterations)/1e6));
+			if (exact) {
+				line.append(String.format(" err=%.4f", meanDistance(nodes.values(), exactNodes.values())));
+			}
+		}
+		System.out.println(line);
+	}
+
+	static void runScaling(Map<String, Node3D> nodes3D, double charge, int iterations) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		// at least 2 threads, so the comparison with the serial run is not skipped on a single core
+		int maxThreads = Math.max(2, cores);
+		Map<String, Node3D> serialNodes = null;
+		long serialNanos = 0;
+		for (int threads=1; threads<=maxThreads; threads = threads == maxThreads ? threads+1 : Math.min(2*threads, maxThreads)) {
+			Map<String, Node3D> nodes = copy(nodes3D);
+			NetLayout layout = new NetLayout();
+			layout.setLongRangeRepulsion(charge, NetLayout.DEFAULT_THETA);
+			layout.setParallelism(threads);
+			long nanos = move(layout, nodes, iterations);
+			layout.close();
+			if (serialNodes == null) {
+				serialNodes = nodes;
+				serialNanos = nanos;
+			}
+			System.out.println(String.format("threads=%2d/%d  nodes=%6d  charge=%5.1f  iterations=%d  time=%8.1fms  speedup=%5.2f  identical=%b",
+					threads, cores, nodes3D.size(), charge, iterations, nanos/1e6, (double) serialNanos/nanos, samePositions(nodes.values(), serialNodes.values())));
+		}
+	}
+
+	static void runRecords(String name, Map<String, Node3D> nodes3D, double charge, int iterations) {
+		Map<String, Node3D> recordNodes = copy(nodes3D);
+		NetLayout layout = new NetLayout();
+		layout.setLongRangeRepulsion(charge, NetLayout.DEFAULT_THETA);
+		long start = System.nanoTime();
+		for (int n=0; n<iterations; n++) {
+			layout.move3DNodesRecords(recordNodes.values());
+		}
+		long recordNanos = System.nanoTime() - start;
+		Map<String, Node3D> arrayNodes = copy(nodes3D);
+		long arrayNanos = move(layout, arrayNodes, iterations);
+		System.out.println(String.format("%-16s nodes=%6d  charge=%5.1f  iterations=%3d  records=%8.1fms  arrays=%8.1fms  speedup=%5.2f  identical=%b",
+				name, nodes3D.size(), charge, iterations, recordNanos/1e6, arrayNanos/1e6, (double) recordNanos/arrayNanos,
+				samePositions(recordNodes.values(), arrayNodes.values())));
+	}
+
+	public static void main(String[] args) throws Exception {
+		URL url = Y23Day08Animation3D.class.getResource("/resources/input/aoc23day08/input.txt");
+		Y23Day08Animation3D.World2 world2 = new Y23Day08Animation3D.World2();
+		for (Y23Day08Animation3D.InputData data:new Y23Day08Animation3D.InputProcessor(new File(url.toURI()).toString())) {
+			if (!data.isMovements()) {
+				world2.addNode(data.node());
+			}
+		}
+		world2.create3DTopology();
+		// warm up
+		run("warmup", world2.nodes3D, 20, true);
+		run("day08 input", world2.nodes3D, (int) Y23Day08Animation3D.NET_ITERATIONS, true);
+		Random random = new Random(Y23Day08Animation3D.RAND_SEED);
+		for (int size:SYNTHETIC_SIZES) {
+			run("synthetic", syntheticGraph(size, random), SYNTHETIC_ITERATIONS, size <= MAX_ALL_PAIRS_SIZE);
+		}
+		System.out.println("long range repulsion, charge "+BENCHMARK_CHARGE);
+		runBarnesHut("day08 input", world2.nodes3D, (int) Y23Day08Animation3D.NET_ITERATIONS, true);
+		random = new Random(Y23Day08Animation3D.RAND_SEED);
+		for (int size:SYNTHETIC_SIZES) {
+			runBarnesHut("synthetic", syntheticGraph(size, random), SYNTHETIC_ITERATIONS, size <= MAX_ALL_PAIRS_SIZE);
+		}
+		System.out.println("parallel scaling");
+		Map<String, Node3D> scalingGraph = syntheticGraph(SCALING_SIZE, new Random(Y23Day08Animation3D.RAND_SEED));
+		runScaling(scalingGraph, 0.0, SYNTHETIC_ITERATIONS);
+		runScaling(scalingGraph, BENCHMARK_CHARGE, SYNTHETIC_ITERATIONS);
+		System.out.println("records and arrays");
+		runRecords("day08 input", world2.nodes3D, 0.0, (int) Y23Day08Animation3D.NET_ITERATIONS);
+		runRecords("day08 input", world2.nodes3D, BENCHMARK_CHARGE, (int) Y23Day08Animation3D.NET_ITERATIONS);
+		random = new Random(Y23Day08Animation3D.RAND_SEED);
+		for (int size:SYNTHETIC_SIZES) {
+			Map<String, Node3D> graph = syntheticGraph(size, random);
+			runRecords("synthetic", graph, 0.0, SYNTHETIC_ITERATIONS);
+			runRecords("synthetic", graph, BENCHMARK_CHARGE, SYNTHETIC_ITERATIONS);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package org.openjfx;
+
+/**
+ * Drops all output, simulations run without starting the JavaFX toolkit.
+ */
+public class NullOutputSink implements OutputSink {
+
+	private int steps;
+	private long objects;
+
+	@Override
+	public void setMatchMode(GUIOutput3D.MatchMode matchMode) {
+	}
+
+	@Override
+	public void setStaticLayer(DDDFrame frame) {
+	}
+
+	@Override
+	public void addStep(String title, DDDFrame frame) {
+		steps++;
+		objects += frame.count;
+	}
+
+	@Override
+	public String getInfo() {
+		return String.format("steps=%d, objects=%d (not shown)", steps, objects);
+	}
+}
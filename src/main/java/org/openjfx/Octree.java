@@ -0,0 +1,217 @@
+package org.openjfx;
+
+import java.util.Arrays;
+
+/**
+ * Barnes-Hut octree over point positions with unit charge.
+ * A cell which is small compared to its distance (size/distance < theta) acts as one charge at its center of mass,
+ * so the repulsion on all points costs O(n log n) instead of O(n*n), theta 0 visits every point.
+ * The cells live in arrays which are kept between builds, a rebuild only allocates when the tree got larger than before.
+ * After build() the tree is only read, so several threads can compute repulsions, each with its own Stack.
+ */
+class Octree {
+
+	/** cells at this depth keep all their points, e.g. points at the same position */
+	static final int MAX_DEPTH = 32;
+
+	private int cellCount;
+	private double[] centerX = new double[0];
+	private double[] centerY = new double[0];
+	private double[] centerZ = new double[0];
+	private double[] halfSize = new double[0];
+	/** number of points in the cell */
+	private int[] mass = new int[0];
+	/** sum of the point positions, divided by mass for the center of mass */
+	private double[] sumX = new double[0];
+	private double[] sumY = new double[0];
+	private double[] sumZ = new double[0];
+	/** first child cell, the 8 children are consecutive, -1 for leafs */
+	private int[] firstChild = new int[0];
+	/** the point of a leaf with mass 1, -1 otherwise */
+	private int[] point = new int[0];
+	private int[] depth = new int[0];
+
+	private double[] px;
+	private double[] py;
+	private double[] pz;
+
+	public void build(double[] px, double[] py, double[] pz, int n) {
+		this.px = px;
+		this.py = py;
+		this.pz = pz;
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		double maxZ = Double.NEGATIVE_INFINITY;
+		for (int i=0; i<n; i++) {
+			minX = Math.min(minX, px[i]);
+			minY = Math.min(minY, py[i]);
+			minZ = Math.min(minZ, pz[i]);
+			maxX = Math.max(maxX, px[i]);
+			maxY = Math.max(maxY, py[i]);
+			maxZ = Math.max(maxZ, pz[i]);
+		}
+		cellCount = 0;
+		double half = Math.max(1e-9, 0.5*Math.max(maxX-minX, Math.max(maxY-minY, maxZ-minZ)));
+		newCell(0.5*(minX+maxX), 0.5*(minY+maxY), 0.5*(minZ+maxZ), half, 0);
+		for (int i=0; i<n; i++) {
+			insert(i);
+		}
+	}
+
+	private int newCell(double cx, double cy, double cz, double half, int cellDepth) {
+		if (cellCount == mass.length) {
+			grow(Math.max(64, 2*cellCount));
+		}
+		int cell = cellCount++;
+		centerX[cell] = cx;
+		centerY[cell] = cy;
+		centerZ[cell] = cz;
+		halfSize[cell] = half;
+		mass[cell] = 0;
+		sumX[cell] = 0;
+		sumY[cell] = 0;
+		sumZ[cell] = 0;
+		firstChild[cell] = -1;
+		point[cell] = -1;
+		depth[cell] = cellDepth;
+		return cell;
+	}
+
+	private void grow(int capacity) {
+		centerX = Arrays.copyOf(centerX, capacity);
+		centerY = Arrays.copyOf(centerY, capacity);
+		centerZ = Arrays.copyOf(centerZ, capacity);
+		halfSize = Arrays.copyOf(halfSize, capacity);
+		mass = Arrays.copyOf(mass, capacity);
+		sumX = Arrays.copyOf(sumX, capacity);
+		sumY = Arrays.copyOf(sumY, capacity);
+		sumZ = Arrays.copyOf(sumZ, capacity);
+		firstChild = Arrays.copyOf(firstChild, capacity);
+		point = Arrays.copyOf(point, capacity);
+		depth = Arrays.copyOf(depth, capacity);
+	}
+
+	private int childFor(int cell, double x, double y, double z) {
+		int octant = (x >= centerX[cell] ? 1 : 0) | (y >= centerY[cell] ? 2 : 0) | (z >= centerZ[cell] ? 4 : 0);
+		return firstChild[cell] + octant;
+	}
+
+	private void split(int cell) {
+		double h = 0.5*halfSize[cell];
+		int first = -1;
+		for (int octant=0; octant<8; octant++) {
+			int child = newCell(
+					centerX[cell] + ((octant & 1) != 0 ? h : -h),
+					centerY[cell] + ((octant & 2) != 0 ? h : -h),
+					centerZ[cell] + ((octant & 4) != 0 ? h : -h),
+					h, depth[cell]+1);
+			if (octant == 0) {
+				first = child;
+			}
+		}
+		firstChild[cell] = first;
+	}
+
+	private void insert(int p) {
+		double x = px[p];
+		double y = py[p];
+		double z = pz[p];
+		int cell = 0;
+		while (true) {
+			boolean empty = mass[cell] == 0;
+			mass[cell]++;
+			sumX[cell] += x;
+			sumY[cell] += y;
+			sumZ[cell] += z;
+			if (empty && (firstChild[cell] == -1)) {
+				point[cell] = p;
+				return;
+			}
+			if (firstChild[cell] == -1) {
+				if (depth[cell] >= MAX_DEPTH) {
+					point[cell] = -1;
+					return;
+				}
+				// the point of the leaf moves one level down
+				int old = point[cell];
+				point[cell] = -1;
+				split(cell);
+				int child = childFor(cell, px[old], py[old], pz[old]);
+				mass[child] = 1;
+				sumX[child] = px[old];
+				sumY[child] = py[old];
+				sumZ[child] = pz[old];
+				point[child] = old;
+			}
+			cell = childFor(cell, x, y, z);
+		}
+	}
+
+	/**
+	 * the cells still to visit while computing a repulsion, kept between calls.
+	 */
+	static class Stack {
+		int[] cells = new int[64];
+	}
+
+	/**
+	 * adds the repulsion of all other points on point p to force, magnitude 1/(d*d+softening2) per point.
+	 */
+	public void addRepulsion(int p, double theta, double softening2, double[] force, Stack pooled) {
+		int[] stack = pooled.cells;
+		double x = px[p];
+		double y = py[p];
+		double z = pz[p];
+		double fx = 0;
+		double fy = 0;
+		double fz = 0;
+		double theta2 = theta*theta;
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int cell = stack[--top];
+			int m = mass[cell];
+			if ((m == 0) || (point[cell] == p)) {
+				continue;
+			}
+			double cmX = sumX[cell]/m;
+			double cmY = sumY[cell]/m;
+			double cmZ = sumZ[cell]/m;
+			double dx = x-cmX;
+			double dy = y-cmY;
+			double dz = z-cmZ;
+			double d2 = dx*dx+dy*dy+dz*dz;
+			double size = 2*halfSize[cell];
+			if ((firstChild[cell] == -1) || (size*size < theta2*d2)) {
+				if (d2 == 0) {
+					// same position, there is no direction to push to
+					continue;
+				}
+				double dist = Math.sqrt(d2);
+				double f = m / ((d2+softening2)*dist);
+				fx += f*dx;
+				fy += f*dy;
+				fz += f*dz;
+				continue;
+			}
+			if (top+8 > stack.length) {
+				stack = Arrays.copyOf(stack, 2*stack.length);
+				pooled.cells = stack;
+			}
+			int first = firstChild[cell];
+			for (int c=0; c<8; c++) {
+				stack[top++] = first+c;
+			}
+		}
+		force[0] += fx;
+		force[1] += fy;
+		force[2] += fz;
+	}
+
+	public int getCellCount() {
+		return cellCount;
+	}
+}
@@ -0,0 +1,74 @@
+package org.openjfx;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Receives the 3D output of a simulation.
+ * The implementation is chosen with the system property "output":
+ * gui (default) shows the steps in a GUIOutput3D window and records them if "output.file" is set,
+ * null drops them, record writes them to the file given by "output.file".
+ * With "output.spill" the gui keeps only that many steps on the heap, older steps are spilled to disk.
+ */
+public interface OutputSink {
+
+	String OUTPUT_PROPERTY = "output";
+	String OUTPUT_FILE_PROPERTY = "output.file";
+	String SPILL_PROPERTY = "output.spill";
+
+	/**
+	 * only affects steps added afterwards.
+	 */
+	void setMatchMode(GUIOutput3D.MatchMode matchMode);
+
+	/**
+	 * objects shown below every step.
+	 */
+	void setStaticLayer(DDDFrame frame);
+
+	default void setStaticLayer(List<GUIOutput3D.DDDObject> dddOs) {
+		setStaticLayer(GUIOutput3D.toFrame(dddOs));
+	}
+
+	/**
+	 * the frame is stored as it is, it must not be modified by the caller afterwards.
+	 */
+	void addStep(String title, DDDFrame frame);
+
+	default void addStep(String title, List<GUIOutput3D.DDDObject> dddOs) {
+		addStep(title, GUIOutput3D.toFrame(dddOs));
+	}
+
+	/**
+	 * statistics of the received steps.
+	 */
+	String getInfo();
+
+	/**
+	 * flushes recorded steps, a GUI window stays open.
+	 */
+	default void close() {
+	}
+
+	static OutputSink create(String title) {
+		String output = System.getProperty(OUTPUT_PROPERTY, "gui");
+		switch (output) {
+		case "gui":
+			GUIOutput3D gui = new GUIOutput3D(title, true);
+			if (System.getProperty(SPILL_PROPERTY) != null) {
+				gui.setStepCapacity(Integer.parseInt(System.getProperty(SPILL_PROPERTY)), StepTimeline.OverflowPolicy.SPILL);
+			}
+			if (System.getProperty(OUTPUT_FILE_PROPERTY) != null) {
+				gui.recordTo(Path.of(System.getProperty(OUTPUT_FILE_PROPERTY)));
+			}
+			return gui;
+		case "null":
+			return new NullOutputSink();
+		case "record":
+			String file = System.getProperty(OUTPUT_FILE_PROPERTY, title.replaceAll("[^A-Za-z0-9]+", "-") + ".rec");
+			return new RecordingOutputSink(Path.of(file));
+		default:
+			throw new RuntimeException("unknown " + OUTPUT_PROPERTY + " '" + output + "', expected gui, null or record");
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package org.openjfx;
+
+import javafx.animation.AnimationTimer;
+
+/**
+ * Plays the steps of a GUIOutput3D driven by the JavaFX pulse.
+ * The position advances by the elapsed time times the steps per second, so when rendering a step
+ * takes longer than a pulse the steps in between are skipped instead of slowing down the playback.
+ * A step shown by the slider or the step buttons while playing moves the position, so scrubbing works during playback.
+ * All methods have to be called on the JavaFX Application Thread.
+ */
+public class PlaybackEngine extends AnimationTimer {
+
+	public static final double DEFAULT_STEPS_PER_SECOND = 4.0;
+	public static final double MIN_STEPS_PER_SECOND = 0.25;
+	public static final double MAX_STEPS_PER_SECOND = 100000.0;
+	/** pulse interval assumed until two pulses were measured */
+	private static final long DEFAULT_PULSE_NANOS = 1000000000L/60;
+
+	private final GUIOutput3D output;
+
+	private double stepsPerSecond;
+	private boolean loop;
+	private boolean playing;
+
+	/** fractional step, the shown step is its integer part */
+	private double position;
+	private long lastPulseNanos;
+	/** interval between the last two pulses, including the render time */
+	private long pulseNanos = DEFAULT_PULSE_NANOS;
+
+	private long renderedSteps;
+	private long skippedSteps;
+	private long windowStartNanos;
+	private int windowFrames;
+	private double effectiveFps;
+
+	public PlaybackEngine(GUIOutput3D output) {
+		this.output = output;
+		this.stepsPerSecond = DEFAULT_STEPS_PER_SECOND;
+		this.loop = false;
+		this.playing = false;
+	}
+
+	public void play() {
+		if (playing) {
+			return;
+		}
+		int stepCount = output.getStepCount();
+		position = Math.max(0, output.getCurrentStep());
+		if (!loop && (position >= stepCount-1)) {
+			// restart a finished playback
+			position = 0;
+		}
+		lastPulseNanos = 0;
+		windowStartNanos = 0;
+		windowFrames = 0;
+		playing = true;
+		start();
+	}
+
+	public void pause() {
+		playing = false;
+		stop();
+	}
+
+	public void toggle() {
+		if (playing) {
+			pause();
+		}
+		else {
+			play();
+		}
+	}
+
+	public void faster() {
+		setStepsPerSecond(2*stepsPerSecond);
+	}
+
+	public void slower() {
+		setStepsPerSecond(0.5*stepsPerSecond);
+	}
+
+	public void setStepsPerSecond(double stepsPerSecond) {
+		this.stepsPerSecond = Math.min(MAX_STEPS_PER_SECOND, Math.max(MIN_STEPS_PER_SECOND, stepsPerSecond));
+	}
+
+	public double getStepsPerSecond() {
+		return stepsPerSecond;
+	}
+
+	public void setLoop(boolean loop) {
+		this.loop = loop;
+	}
+
+	public boolean isLoop() {
+		return loop;
+	}
+
+	public boolean isPlaying() {
+		return playing;
+	}
+
+	/**
+	 * rendered steps per second, measured over the last second.
+	 */
+	public double getEffectiveFps() {
+		return effectiveFps;
+	}
+
+	public long getRenderedSteps() {
+		return renderedSteps;
+	}
+
+	/**
+	 * steps which were passed without being rendered.
+	 */
+	public long getSkippedSteps() {
+		return skippedSteps;
+	}
+
+	/**
+	 * the step the playback will probably show after the given number of pulses, at the current speed and pulse interval.
+	 * @param from the shown step, the position continues from it if the step was changed outside the playback.
+	 * @return -1 if the playback ends before.
+	 */
+	int predictStep(int from, int pulses, int stepCount) {
+		double start = (int) position == from ? position : from;
+		double predicted = start + pulses * stepsPerSecond * pulseNanos / 1e9;
+		if (predicted < stepCount) {
+			return (int) predicted;
+		}
+		if (loop) {
+			return (int) (predicted % stepCount);
+		}
+		return start >= stepCount-1 ? -1 : stepCount-1;
+	}
+
+	@Override
+	public void handle(long now) {
+		if (lastPulseNanos == 0) {
+			lastPulseNanos = now;
+			windowStartNanos = now;
+			return;
+		}
+		int stepCount = output.getStepCount();
+		if (stepCount == 0) {
+			lastPulseNanos = now;
+			return;
+		}
+		int current = output.getCurrentStep();
+		if ((current >= 0) && (current != (int) position)) {
+			// the slider or the step buttons changed the step, the playback continues from there
+			position = current;
+		}
+		int shown = (int) position;
+		pulseNanos = now - lastPulseNanos;
+		position += stepsPerSecond * pulseNanos / 1e9;
+		lastPulseNanos = now;
+		if (position >= stepCount) {
+			if (loop) {
+				position = position % stepCount;
+			}
+			else {
+				position = stepCount-1;
+				pause();
+			}
+		}
+		int target = (int) position;
+		if (target != shown) {
+			int passed = target > shown ? target-shown : target+stepCount-shown;
+			skippedSteps += passed-1;
+			renderedSteps++;
+			windowFrames++;
+			output.renderStep(target);
+		}
+		if (now - windowStartNanos >= 1000000000L) {
+			effectiveFps = windowFrames * 1e9 / (now - windowStartNanos);
+			windowStartNanos = now;
+			windowFrames = 0;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package org.openjfx;
+
+import java.nio.file.Path;
+
+/**
+ * Writes the static layer and every step to a recording while the simulation runs, nothing is shown.
+ * Anonymous ids are matched like in GUIOutput3D, so the recorded ids are stable.
+ * The file format is described in RecordingWriter, GUIOutput3D.loadRecording() shows the recording.
+ */
+public class RecordingOutputSink implements OutputSink {
+
+	private final RecordingWriter writer;
+	private SlotMatcher slotMatcher;
+
+	public RecordingOutputSink(Path file) {
+		this.writer = new RecordingWriter(file);
+		this.slotMatcher = new SlotMatcher(DDDIdRegistry.DEFAULT, GUIOutput3D.MatchMode.NONE);
+	}
+
+	@Override
+	public void setMatchMode(GUIOutput3D.MatchMode matchMode) {
+		slotMatcher = new SlotMatcher(DDDIdRegistry.DEFAULT, matchMode);
+	}
+
+	@Override
+	public void setStaticLayer(DDDFrame frame) {
+		writer.writeStaticLayer(frame);
+	}
+
+	@Override
+	public void addStep(String title, DDDFrame frame) {
+		slotMatcher.match(frame);
+		writer.append(title, frame);
+	}
+
+	@Override
+	public String getInfo() {
+		return String.format("steps=%d, %dKB recorded to %s", writer.getStepCount(), writer.getBytesWritten()/1024, writer.getFile());
+	}
+
+	@Override
+	public void close() {
+		writer.close();
+	}
+}
@@ -0,0 +1,226 @@
+package org.openjfx;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a recording written by RecordingWriter.
+ * The step index is loaded on open, so the position of every step is found in O(1),
+ * a step is decoded from the keyframe before it, at most keyframe interval steps.
+ * Moving forward from the last read step only decodes the steps in between.
+ * The recorded ids are mapped into the given registry: named ids by their name,
+ * the others get reserved ids, so the viewer does not match them again.
+ * Not thread safe.
+ */
+public class RecordingReader {
+
+	private final Path file;
+	private final FileChannel channel;
+	private final int version;
+	private final int keyframeInterval;
+	private final DDDFrame staticLayer;
+	/** offset of every step plus the end of the last step */
+	private final long[] offsets;
+	private final byte[] kinds;
+	/** recorded id -> id in the registry */
+	private int[] idMap;
+
+	private final WorkingFrame working;
+	/** step in working, -1 if nothing is loaded */
+	private int workingStep;
+	private long decodedSteps;
+
+	public RecordingReader(Path file) {
+		this(file, DDDIdRegistry.DEFAULT);
+	}
+
+	public RecordingReader(Path file, DDDIdRegistry registry) {
+		this.file = file;
+		try {
+			this.channel = FileChannel.open(file, StandardOpenOption.READ);
+			DataInputStream trailer = read(channel.size()-RecordingWriter.TRAILER_SIZE, RecordingWriter.TRAILER_SIZE);
+			long idsOffset = trailer.readLong();
+			long indexOffset = trailer.readLong();
+			DataInputStream header = read(0, 12);
+			if ((trailer.readInt() != RecordingWriter.MAGIC) || (header.readInt() != RecordingWriter.MAGIC)) {
+				throw new RuntimeException(file + " is not a complete recording");
+			}
+			this.version = header.readInt();
+			if (version != RecordingWriter.VERSION) {
+				throw new RuntimeException("unsupported recording version " + version + " in " + file);
+			}
+			this.keyframeInterval = header.readInt();
+			DataInputStream ids = read(idsOffset, (int) (indexOffset-idsOffset));
+			int cntIds = ids.readInt();
+			this.idMap = new int[16];
+			for (int i=0; i<cntIds; i++) {
+				int recordedId = ids.readInt();
+				int id = ids.readBoolean() ? registry.intern(ids.readUTF()) : registry.reserveId();
+				if (recordedId >= idMap.length) {
+					idMap = Arrays.copyOf(idMap, Math.max(recordedId+1, 2*idMap.length));
+				}
+				idMap[recordedId] = id;
+			}
+			DataInputStream index = read(indexOffset, (int) (channel.size()-RecordingWriter.TRAILER_SIZE-indexOffset));
+			int steps = index.readInt();
+			this.offsets = new long[steps+1];
+			this.kinds = new byte[steps];
+			for (int i=0; i<steps; i++) {
+				offsets[i] = index.readLong();
+				kinds[i] = index.readByte();
+			}
+			offsets[steps] = idsOffset;
+			long staticEnd = steps == 0 ? idsOffset : offsets[0];
+			this.staticLayer = readFrame(read(12, (int) (staticEnd-12)));
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+		this.working = new WorkingFrame();
+		this.workingStep = -1;
+	}
+
+	private DataInputStream read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position+buffer.position()) < 0) {
+				throw new IOException("unexpected end of " + file);
+			}
+		}
+		return new DataInputStream(new ByteArrayInputStream(buffer.array()));
+	}
+
+	private DDDFrame readFrame(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		DDDFrame result = new DDDFrame(count);
+		for (int i=0; i<count; i++) {
+			int recordedId = in.readInt();
+			// only the static layer may contain anonymous objects, it is not matched
+			int id = recordedId == DDDFrame.ANONYMOUS ? DDDFrame.ANONYMOUS : idMap[recordedId];
+			int type = in.readInt();
+			double x = in.readDouble();
+			double y = in.readDouble();
+			double z = in.readDouble();
+			double size = in.readDouble();
+			if (DDDFrame.isLineType(type)) {
+				result.addLine(id, x, y, z, in.readDouble(), in.readDouble(), in.readDouble(), size, type);
+			}
+			else {
+				result.addPoint(id, x, y, z, size, type);
+			}
+		}
+		return result;
+	}
+
+	public int size() {
+		return kinds.length;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public int getKeyframeInterval() {
+		return keyframeInterval;
+	}
+
+	public DDDFrame getStaticLayer() {
+		return staticLayer;
+	}
+
+	public String getTitle(int step) {
+		checkStep(step);
+		try {
+			// byte kind, then the title with its int length
+			int length = read(offsets[step]+1, 4).readInt();
+			if (length < 0) {
+				return null;
+			}
+			byte[] bytes = new byte[length];
+			read(offsets[step]+5, length).readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
+	/**
+	 * the returned frame is a copy, the ids are mapped into the registry of the reader.
+	 */
+	public DDDFrame getFrame(int step) {
+		checkStep(step);
+		int start = step;
+		while (kinds[start] != RecordingWriter.KEYFRAME) {
+			start--;
+		}
+		try {
+			if ((workingStep == -1) || (workingStep > step) || (workingStep < start)) {
+				decode(start);
+			}
+			while (workingStep < step) {
+				decode(workingStep+1);
+			}
+		} catch (IOException e) {
+			workingStep = -1;
+			throw new RuntimeException(e.toString(), e);
+		}
+		return working.copyFrame();
+	}
+
+	private void decode(int step) throws IOException {
+		DataInputStream in = read(offsets[step], (int) (offsets[step+1]-offsets[step]));
+		byte kind = in.readByte();
+		int titleLength = in.readInt();
+		in.skipNBytes(Math.max(0, titleLength));
+		int[] removedIds = new int[in.readInt()];
+		for (int i=0; i<removedIds.length; i++) {
+			removedIds[i] = idMap[in.readInt()];
+		}
+		DDDFrame frame = readFrame(in);
+		if (kind == RecordingWriter.KEYFRAME) {
+			working.load(frame);
+		}
+		else {
+			working.apply(frame, removedIds);
+		}
+		workingStep = step;
+		decodedSteps++;
+	}
+
+	private void checkStep(int step) {
+		if ((step < 0) || (step >= kinds.length)) {
+			throw new IndexOutOfBoundsException(step);
+		}
+	}
+
+	/**
+	 * number of step records decoded so far, shows how much a seek cost.
+	 */
+	public long getDecodedSteps() {
+		return decodedSteps;
+	}
+
+	/**
+	 * feeds the static layer and all steps into the sink.
+	 */
+	public void replay(OutputSink sink) {
+		sink.setStaticLayer(staticLayer);
+		for (int step=0; step<size(); step++) {
+			sink.addStep(getTitle(step), getFrame(step));
+		}
+	}
+
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+}
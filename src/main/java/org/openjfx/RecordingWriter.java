@@ -0,0 +1,223 @@
+package org.openjfx;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Streams the steps of a run into a recording file, every step is appended when it is added.
+ * Format version 1, all numbers big endian as written by DataOutputStream:
+ *   header:  int MAGIC, int VERSION, int keyframe interval
+ *   static:  frame of the static layer
+ *   steps:   per step byte KEYFRAME or DELTA, title, int removed count, int[] removed ids, frame,
+ *            a keyframe holds all objects, a delta the objects added or changed since the step before
+ *   ids:     int count, per used id int id, boolean named and the UTF name for named ids
+ *   index:   int step count, per step long offset and byte KEYFRAME or DELTA
+ *   trailer: long offset of the ids, long offset of the index, int MAGIC
+ *   frame:   int count, per object int id, int type, double x, y, z, size and for lines x2, y2, z2
+ *   title:   int byte length, -1 for a null title, and the UTF-8 bytes
+ * At least every keyframe interval steps a keyframe is written, so a reader decodes at most that many steps.
+ */
+public class RecordingWriter {
+
+	static final int MAGIC = 0x44444452; // "DDDR"
+	static final int VERSION = 1;
+	static final byte KEYFRAME = 0;
+	static final byte DELTA = 1;
+	/** long ids offset, long index offset, int magic */
+	static final int TRAILER_SIZE = 20;
+
+	private final Path file;
+	private final DDDIdRegistry registry;
+	private final int keyframeInterval;
+	private final CountingOutputStream counter;
+	private final DataOutputStream out;
+	private final FrameDelta delta;
+	private final BitSet usedIds;
+	private long[] offsets;
+	private byte[] kinds;
+	private int steps;
+	private int stepsSinceKeyframe;
+	private boolean staticWritten;
+	private boolean closed;
+
+	public RecordingWriter(Path file) {
+		this(file, DDDIdRegistry.DEFAULT, StepTimeline.DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	public RecordingWriter(Path file, DDDIdRegistry registry, int keyframeInterval) {
+		this.file = file;
+		this.registry = registry;
+		this.keyframeInterval = Math.max(1, keyframeInterval);
+		try {
+			this.counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+			this.out = new DataOutputStream(counter);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(this.keyframeInterval);
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+		this.delta = new FrameDelta();
+		this.usedIds = new BitSet();
+		this.offsets = new long[1024];
+		this.kinds = new byte[1024];
+	}
+
+	/**
+	 * only before the first step, without a call the recording has an empty static layer.
+	 */
+	public void writeStaticLayer(DDDFrame frame) {
+		if (staticWritten) {
+			throw new RuntimeException("the static layer of a recording can only be set before the first step");
+		}
+		try {
+			writeFrame(frame);
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+		staticWritten = true;
+	}
+
+	/**
+	 * the ids of the frame have to be matched already, the frame must not be modified afterwards.
+	 */
+	public void append(String title, DDDFrame frame) {
+		if (!staticWritten) {
+			writeStaticLayer(new DDDFrame(0));
+		}
+		if (steps == offsets.length) {
+			offsets = Arrays.copyOf(offsets, 2*steps);
+			kinds = Arrays.copyOf(kinds, 2*steps);
+		}
+		boolean isDelta = (stepsSinceKeyframe < keyframeInterval) && delta.compute(frame);
+		offsets[steps] = counter.count;
+		kinds[steps] = isDelta ? DELTA : KEYFRAME;
+		try {
+			out.writeByte(kinds[steps]);
+			writeTitle(title);
+			if (isDelta) {
+				out.writeInt(delta.removedIds.length);
+				for (int id:delta.removedIds) {
+					out.writeInt(id);
+				}
+				writeFrame(delta.changes);
+			}
+			else {
+				out.writeInt(0);
+				writeFrame(frame);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+		stepsSinceKeyframe = isDelta ? stepsSinceKeyframe+1 : 1;
+		delta.remember(frame);
+		steps++;
+	}
+
+	private void writeTitle(String title) throws IOException {
+		if (title == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private void writeFrame(DDDFrame frame) throws IOException {
+		out.writeInt(frame.count);
+		for (int i=0; i<frame.count; i++) {
+			if (frame.id[i] != DDDFrame.ANONYMOUS) {
+				usedIds.set(frame.id[i]);
+			}
+			out.writeInt(frame.id[i]);
+			out.writeInt(frame.type[i]);
+			out.writeDouble(frame.x[i]);
+			out.writeDouble(frame.y[i]);
+			out.writeDouble(frame.z[i]);
+			out.writeDouble(frame.size[i]);
+			if (frame.isLine(i)) {
+				out.writeDouble(frame.x2[i]);
+				out.writeDouble(frame.y2[i]);
+				out.writeDouble(frame.z2[i]);
+			}
+		}
+	}
+
+	public int getStepCount() {
+		return steps;
+	}
+
+	public long getBytesWritten() {
+		return counter.count;
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * writes the id table and the step index, the recording can only be read afterwards.
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (!staticWritten) {
+				writeStaticLayer(new DDDFrame(0));
+			}
+			long idsOffset = counter.count;
+			out.writeInt(usedIds.cardinality());
+			for (int id=usedIds.nextSetBit(0); id>=0; id=usedIds.nextSetBit(id+1)) {
+				String name = registry.name(id);
+				out.writeInt(id);
+				out.writeBoolean(name != null);
+				if (name != null) {
+					out.writeUTF(name);
+				}
+			}
+			long indexOffset = counter.count;
+			out.writeInt(steps);
+			for (int i=0; i<steps; i++) {
+				out.writeLong(offsets[i]);
+				out.writeByte(kinds[i]);
+			}
+			out.writeLong(idsOffset);
+			out.writeLong(indexOffset);
+			out.writeInt(MAGIC);
+			out.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
+	/**
+	 * DataOutputStream.size() is an int, recordings can be larger than 2GB.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		long count;
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package org.openjfx;
+
+import java.util.Arrays;
+
+/**
+ * The node operations which turn the cached nodes showing one step into the nodes of another step.
+ * Computed off the JavaFX Application Thread, including the line geometry, so applying it
+ * only sets node properties.
+ * Every create and update operation carries all primitives of its object, the mask tells which
+ * of them differ from the base step, a node missing in the cache is created from all of them.
+ */
+class SceneDiff {
+
+	static final int CREATE = 0;
+	static final int UPDATE = 1;
+	static final int HIDE = 2;
+
+	static final int TYPE = 1;
+	static final int SIZE = 2;
+	static final int POSITION = 4;
+	static final int ALL = TYPE | SIZE | POSITION;
+
+	final int baseStep;
+	final int targetStep;
+	/** the remembered values of the nodes are taken from here */
+	final DDDFrame target;
+
+	int count;
+	int[] op;
+	int[] id;
+	/** index in target, -1 for HIDE */
+	int[] index;
+	int[] mask;
+	/** box and sphere: position and edge length; line: midpoint, thickness, length and rotation */
+	double[] tx;
+	double[] ty;
+	double[] tz;
+	double[] width;
+	double[] height;
+	double[] angle;
+	double[] axisX;
+	double[] axisZ;
+	int unchanged;
+
+	/**
+	 * id indexed scratch arrays of a worker thread, kept between diffs, all entries are 0 and false between two diffs.
+	 */
+	private static class Scratch {
+		/** id -> index+1 in base, 0 for ids not in base */
+		int[] baseIndex = new int[16];
+		boolean[] seen = new boolean[16];
+	}
+
+	private static final ThreadLocal<Scratch> scratches = ThreadLocal.withInitial(Scratch::new);
+
+	private SceneDiff(int baseStep, int targetStep, DDDFrame target, int capacity) {
+		this.baseStep = baseStep;
+		this.targetStep = targetStep;
+		this.target = target;
+		capacity = Math.max(1, capacity);
+		this.op = new int[capacity];
+		this.id = new int[capacity];
+		this.index = new int[capacity];
+		this.mask = new int[capacity];
+		this.tx = new double[capacity];
+		this.ty = new double[capacity];
+		this.tz = new double[capacity];
+		this.width = new double[capacity];
+		this.height = new double[capacity];
+		this.angle = new double[capacity];
+		this.axisX = new double[capacity];
+		this.axisZ = new double[capacity];
+	}
+
+	/**
+	 * @return null if one of the frames contains an id twice, those steps are rendered without a diff.
+	 */
+	static SceneDiff compute(int baseStep, DDDFrame base, int targetStep, DDDFrame target) {
+		int maxId = -1;
+		for (int i=0; i<base.count; i++) {
+			maxId = Math.max(maxId, base.id[i]);
+		}
+		for (int i=0; i<target.count; i++) {
+			maxId = Math.max(maxId, target.id[i]);
+		}
+		Scratch scratch = scratches.get();
+		if (scratch.baseIndex.length <= maxId) {
+			int length = Math.max(maxId+1, 2*scratch.baseIndex.length);
+			scratch.baseIndex = new int[length];
+			scratch.seen = new boolean[length];
+		}
+		try {
+			return compute(baseStep, base, targetStep, target, scratch.baseIndex, scratch.seen);
+		}
+		finally {
+			// only the entries of the two frames were touched
+			for (int i=0; i<base.count; i++) {
+				scratch.baseIndex[base.id[i]] = 0;
+				scratch.seen[base.id[i]] = false;
+			}
+			for (int i=0; i<target.count; i++) {
+				scratch.seen[target.id[i]] = false;
+			}
+		}
+	}
+
+	private static SceneDiff compute(int baseStep, DDDFrame base, int targetStep, DDDFrame target, int[] baseIndex, boolean[] seen) {
+		for (int i=0; i<base.count; i++) {
+			if (baseIndex[base.id[i]] != 0) {
+				return null;
+			}
+			baseIndex[base.id[i]] = i+1;
+		}
+		SceneDiff result = new SceneDiff(baseStep, targetStep, target, target.count);
+		for (int i=0; i<target.count; i++) {
+			int objectId = target.id[i];
+			if (seen[objectId]) {
+				return null;
+			}
+			seen[objectId] = true;
+			int b = baseIndex[objectId]-1;
+			if (b == -1) {
+				result.add(CREATE, objectId, i, ALL);
+				continue;
+			}
+			if (base.type[b]/10 != target.type[i]/10) {
+				result.add(CREATE, objectId, i, ALL);
+				continue;
+			}
+			int m = 0;
+			if (base.type[b] != target.type[i]) {
+				m |= TYPE;
+			}
+			if (base.size[b] != target.size[i]) {
+				m |= SIZE;
+			}
+			if ((base.x[b] != target.x[i]) || (base.y[b] != target.y[i]) || (base.z[b] != target.z[i])) {
+				m |= POSITION;
+			}
+			else if (target.isLine(i) && ((base.x2[b] != target.x2[i]) || (base.y2[b] != target.y2[i]) || (base.z2[b] != target.z2[i]))) {
+				m |= POSITION;
+			}
+			if (m == 0) {
+				result.unchanged++;
+			}
+			else {
+				result.add(UPDATE, objectId, i, m);
+			}
+		}
+		for (int i=0; i<base.count; i++) {
+			if (!seen[base.id[i]]) {
+				result.add(HIDE, base.id[i], -1, 0);
+			}
+		}
+		return result;
+	}
+
+	private void add(int operation, int objectId, int idx, int m) {
+		if (count == op.length) {
+			int capacity = 2*count;
+			op = Arrays.copyOf(op, capacity);
+			id = Arrays.copyOf(id, capacity);
+			index = Arrays.copyOf(index, capacity);
+			mask = Arrays.copyOf(mask, capacity);
+			tx = Arrays.copyOf(tx, capacity);
+			ty = Arrays.copyOf(ty, capacity);
+			tz = Arrays.copyOf(tz, capacity);
+			width = Arrays.copyOf(width, capacity);
+			height = Arrays.copyOf(height, capacity);
+			angle = Arrays.copyOf(angle, capacity);
+			axisX = Arrays.copyOf(axisX, capacity);
+			axisZ = Arrays.copyOf(axisZ, capacity);
+		}
+		int k = count++;
+		op[k] = operation;
+		id[k] = objectId;
+		index[k] = idx;
+		mask[k] = m;
+		if (idx == -1) {
+			return;
+		}
+		width[k] = target.size[idx];
+		if (!target.isLine(idx)) {
+			tx[k] = target.x[idx];
+			ty[k] = target.y[idx];
+			tz[k] = target.z[idx];
+			return;
+		}
+		// same geometry as GUIOutput3D.setLineSizeAndPos(), the line box is rotated from the y axis onto the segment
+		double sx = target.x2[idx]-target.x[idx];
+		double sy = target.y2[idx]-target.y[idx];
+		double sz = target.z2[idx]-target.z[idx];
+		double length = Math.sqrt(sx*sx+sy*sy+sz*sz);
+		tx[k] = 0.5*(target.x[idx]+target.x2[idx]);
+		ty[k] = 0.5*(target.y[idx]+target.y2[idx]);
+		tz[k] = 0.5*(target.z[idx]+target.z2[idx]);
+		height[k] = length;
+		angle[k] = -Math.toDegrees(Math.acos(length == 0.0 ? 0.0 : sy/length));
+		// segment x y axis, its y component is always 0
+		axisX[k] = -sz;
+		axisZ[k] = sx;
+	}
+}
@@ -0,0 +1,236 @@
+package org.openjfx;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Gives anonymous objects of a frame stable slot ids, so the cached nodes of the previous
+ * step can be reused instead of creating new nodes for every step.
+ * NONE: the n-th anonymous object gets the n-th slot, whatever its type.
+ * SLOT: the n-th anonymous object of a type always gets the n-th slot of this type.
+ * NEAREST: an anonymous object gets the slot of the same type which was nearest in the previous step.
+ * It is O(n*m) per type, a type with more than MAX_NEAREST_PAIRS pairs is matched like SLOT instead.
+ * Each type never has more slots than the maximum number of anonymous objects of this type in one step,
+ * so the reserved ids do not grow with the number of steps.
+ */
+class SlotMatcher {
+
+	private static final int MAX_TYPES = 64;
+	/** NEAREST compares each anonymous object with all previous objects of its type, up to this many pairs per type */
+	static final long MAX_NEAREST_PAIRS = 1L << 20;
+
+	private final DDDIdRegistry registry;
+	private final GUIOutput3D.MatchMode mode;
+
+	/** type -> slot ids ever created for this type */
+	private final int[][] slotsByType;
+	private final int[] slotCountByType;
+	private final BitSet slotIds;
+	/** the slots of NONE, shared by all types */
+	private int[] anonymousSlots;
+	private int anonymousSlotCount;
+
+	private final int[] usedByType;
+	private DDDFrame previous;
+
+	/** NEAREST: scratch arrays kept between frames */
+	private final BitSet takenSlots;
+	private int[] unmatched;
+	private final int[] anonymousByType;
+	/** previous objects of type t are previousByType[previousStart[t]] to previousByType[previousStart[t+1]-1] */
+	private final int[] previousStart;
+	private final int[] previousFill;
+	private int[] previousByType;
+	private boolean[] taken;
+
+	SlotMatcher(DDDIdRegistry registry, GUIOutput3D.MatchMode mode) {
+		this.registry = registry;
+		this.mode = mode;
+		this.slotsByType = new int[MAX_TYPES][];
+		this.slotCountByType = new int[MAX_TYPES];
+		this.slotIds = new BitSet();
+		this.usedByType = new int[MAX_TYPES];
+		this.anonymousSlots = new int[16];
+		this.anonymousSlotCount = 0;
+		this.takenSlots = new BitSet();
+		this.unmatched = new int[16];
+		this.anonymousByType = new int[MAX_TYPES];
+		this.previousStart = new int[MAX_TYPES+1];
+		this.previousFill = new int[MAX_TYPES];
+		this.previousByType = new int[16];
+		this.taken = new boolean[16];
+	}
+
+	private static boolean isAnonymous(int id) {
+		return id == DDDFrame.ANONYMOUS;
+	}
+
+	/**
+	 * replaces the ids of the anonymous objects in the frame by slot ids.
+	 */
+	void match(DDDFrame frame) {
+		switch (mode) {
+		case NONE: {
+			int used = 0;
+			for (int i=0; i<frame.count; i++) {
+				if (isAnonymous(frame.id[i])) {
+					frame.id[i] = anonymousSlot(used++);
+				}
+			}
+			return;
+		}
+		case SLOT:
+			matchBySlot(frame);
+			break;
+		case NEAREST:
+			matchByNearest(frame);
+			break;
+		}
+		previous = frame;
+	}
+
+	private void matchBySlot(DDDFrame frame) {
+		Arrays.fill(usedByType, 0);
+		for (int i=0; i<frame.count; i++) {
+			if (isAnonymous(frame.id[i])) {
+				int type = typeIndex(frame.type[i]);
+				frame.id[i] = slot(type, usedByType[type]++);
+			}
+		}
+	}
+
+	private void matchByNearest(DDDFrame frame) {
+		Arrays.fill(usedByType, 0);
+		takenSlots.clear();
+		bucketPrevious();
+		// per type the anonymous objects of this frame, a type with too many pairs falls back to SLOT
+		Arrays.fill(anonymousByType, 0);
+		for (int i=0; i<frame.count; i++) {
+			if (isAnonymous(frame.id[i])) {
+				anonymousByType[typeIndex(frame.type[i])]++;
+			}
+		}
+		if (unmatched.length < frame.count) {
+			unmatched = new int[frame.count];
+		}
+		int cntUnmatched = 0;
+		for (int i=0; i<frame.count; i++) {
+			if (!isAnonymous(frame.id[i])) {
+				continue;
+			}
+			int type = frame.type[i];
+			int best = -1;
+			if ((long) anonymousByType[type]*(previousStart[type+1]-previousStart[type]) <= MAX_NEAREST_PAIRS) {
+				double bestDist = Double.POSITIVE_INFINITY;
+				for (int k=previousStart[type]; k<previousStart[type+1]; k++) {
+					int p = previousByType[k];
+					if (taken[p]) {
+						continue;
+					}
+					double dist = distance(previous, p, frame, i);
+					if (dist < bestDist) {
+						bestDist = dist;
+						best = p;
+					}
+				}
+			}
+			if (best == -1) {
+				unmatched[cntUnmatched++] = i;
+			}
+			else {
+				taken[best] = true;
+				frame.id[i] = previous.id[best];
+				takenSlots.set(previous.id[best]);
+			}
+		}
+		// objects without a counterpart get a free slot of their type
+		for (int u=0; u<cntUnmatched; u++) {
+			int i = unmatched[u];
+			int type = typeIndex(frame.type[i]);
+			int slot = slot(type, usedByType[type]++);
+			while (takenSlots.get(slot)) {
+				slot = slot(type, usedByType[type]++);
+			}
+			takenSlots.set(slot);
+			frame.id[i] = slot;
+		}
+	}
+
+	/**
+	 * sorts the slot objects of the previous frame by type, so an object is only compared with its own type.
+	 */
+	private void bucketPrevious() {
+		Arrays.fill(previousStart, 0);
+		int count = previous == null ? 0 : previous.count;
+		if (taken.length < count) {
+			taken = new boolean[count];
+			previousByType = new int[count];
+		}
+		Arrays.fill(taken, 0, count, false);
+		for (int p=0; p<count; p++) {
+			if (slotIds.get(previous.id[p])) {
+				previousStart[previous.type[p]+1]++;
+			}
+		}
+		for (int t=0; t<MAX_TYPES; t++) {
+			previousStart[t+1] += previousStart[t];
+		}
+		System.arraycopy(previousStart, 0, previousFill, 0, MAX_TYPES);
+		for (int p=0; p<count; p++) {
+			if (slotIds.get(previous.id[p])) {
+				previousByType[previousFill[previous.type[p]]++] = p;
+			}
+		}
+	}
+
+	private static double distance(DDDFrame f1, int i1, DDDFrame f2, int i2) {
+		double dx = f1.x[i1]-f2.x[i2];
+		double dy = f1.y[i1]-f2.y[i2];
+		double dz = f1.z[i1]-f2.z[i2];
+		double result = dx*dx+dy*dy+dz*dz;
+		if (f1.isLine(i1)) {
+			dx = f1.x2[i1]-f2.x2[i2];
+			dy = f1.y2[i1]-f2.y2[i2];
+			dz = f1.z2[i1]-f2.z2[i2];
+			result += dx*dx+dy*dy+dz*dz;
+		}
+		return result;
+	}
+
+	private static int typeIndex(int type) {
+		if ((type < 0) || (type >= MAX_TYPES)) {
+			throw new RuntimeException("invalid type " + type);
+		}
+		return type;
+	}
+
+	private int anonymousSlot(int ordinal) {
+		if (ordinal == anonymousSlotCount) {
+			if (ordinal == anonymousSlots.length) {
+				anonymousSlots = Arrays.copyOf(anonymousSlots, 2*ordinal);
+			}
+			anonymousSlots[anonymousSlotCount++] = registry.reserveId();
+		}
+		return anonymousSlots[ordinal];
+	}
+
+	private int slot(int type, int ordinal) {
+		int[] slots = slotsByType[type];
+		if (slots == null) {
+			slots = new int[16];
+			slotsByType[type] = slots;
+		}
+		if (ordinal < slotCountByType[type]) {
+			return slots[ordinal];
+		}
+		if (ordinal == slots.length) {
+			slots = Arrays.copyOf(slots, 2*slots.length);
+			slotsByType[type] = slots;
+		}
+		int id = registry.reserveId();
+		slotIds.set(id);
+		slots[ordinal] = id;
+		slotCountByType[type] = ordinal+1;
+		return id;
+	}
+}
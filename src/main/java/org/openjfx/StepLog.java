@@ -0,0 +1,91 @@
+package org.openjfx;
+
+import java.util.Arrays;
+
+/**
+ * Append-only log with one writer and any number of readers, readers never lock.
+ * Elements are stored in chunks, so appending never copies elements, only the small chunk directory.
+ * An element is published by the volatile write of the size after it was stored,
+ * a reader which read the size sees all elements below it.
+ * The writer can drop the oldest elements, their chunks are released as soon as they are completely dropped.
+ */
+public class StepLog<T> {
+
+	static final int CHUNK_BITS = 10;
+	static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/** chunk index -> chunk, null for dropped chunks */
+	private volatile Object[][] chunks;
+	private volatile int size;
+	private volatile int first;
+
+	public StepLog() {
+		this.chunks = new Object[16][];
+		this.size = 0;
+		this.first = 0;
+	}
+
+	/**
+	 * writer only.
+	 */
+	public void append(T value) {
+		int index = size;
+		int chunkIndex = index >>> CHUNK_BITS;
+		Object[][] directory = chunks;
+		if (chunkIndex == directory.length) {
+			directory = Arrays.copyOf(directory, 2*directory.length);
+			chunks = directory;
+		}
+		Object[] chunk = directory[chunkIndex];
+		if (chunk == null) {
+			chunk = new Object[CHUNK_SIZE];
+			directory[chunkIndex] = chunk;
+		}
+		chunk[index & CHUNK_MASK] = value;
+		// publishes the element
+		size = index+1;
+	}
+
+	/**
+	 * writer only, elements before newFirst are no longer returned.
+	 */
+	public void dropBefore(int newFirst) {
+		newFirst = Math.min(newFirst, size);
+		if (newFirst <= first) {
+			return;
+		}
+		first = newFirst;
+		Object[][] directory = chunks;
+		for (int c=0; c<(newFirst >>> CHUNK_BITS); c++) {
+			directory[c] = null;
+		}
+	}
+
+	/**
+	 * @return null if the element was not appended yet or was dropped.
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int index) {
+		if ((index < first) || (index >= size)) {
+			return null;
+		}
+		Object[] chunk = chunks[index >>> CHUNK_BITS];
+		// the chunk may have been dropped after first was read
+		return chunk == null ? null : (T) chunk[index & CHUNK_MASK];
+	}
+
+	/**
+	 * number of elements ever appended, including dropped ones.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * index of the oldest element which was not dropped.
+	 */
+	public int first() {
+		return first;
+	}
+}
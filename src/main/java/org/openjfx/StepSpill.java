@@ -0,0 +1,238 @@
+package org.openjfx;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timeline entries moved from the heap into a memory mapped temporary file, see OverflowPolicy.SPILL.
+ * One writer appends, any number of readers read without locking the file, like in StepLog.
+ * Per entry a record of fixed width fields:
+ *   int keyframe, int object count, int removed count, int title length (-1 for a null title), int step, int unused,
+ *   double minX, minY, minZ, maxX, maxY, maxZ,
+ *   int[] removed ids, char[] title, padded to 8 bytes,
+ *   per object int id, int type, double x, y, z, size, x2, y2, z2.
+ * The file is mapped in segments, a record never crosses a segment.
+ * On the heap only the offset of every record and the last decoded entries are kept.
+ */
+class StepSpill {
+
+	static final int SEGMENT_SIZE = 1 << 26;
+	static final int HEADER_SIZE = 72;
+	static final int OBJECT_SIZE = 64;
+	static final int DEFAULT_DECODED_WINDOW = 128;
+
+	private final Path file;
+	private final FileChannel channel;
+	/** mapped segments, replaced by a longer copy when a segment is added */
+	private volatile MappedByteBuffer[] segments;
+	private long fileSize;
+	private int position;
+	/** record index -> segment << 32 | position in segment */
+	private volatile long[] offsets;
+	private volatile int size;
+	private volatile long bytes;
+
+	private final int decodedWindow;
+	/** least recently read decoded entries */
+	private final Map<Integer, StepTimeline.Entry> decoded;
+
+	StepSpill(int decodedWindow) {
+		try {
+			this.file = Files.createTempFile("steps", ".spill");
+			file.toFile().deleteOnExit();
+			this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+		this.segments = new MappedByteBuffer[0];
+		this.offsets = new long[1024];
+		this.decodedWindow = Math.max(1, decodedWindow);
+		this.decoded = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, StepTimeline.Entry> eldest) {
+				return size() > StepSpill.this.decodedWindow;
+			}
+		};
+	}
+
+	private static int titleLength(String title) {
+		return title == null ? 0 : title.length();
+	}
+
+	private static int recordSize(StepTimeline.Entry entry) {
+		int result = HEADER_SIZE + 4*entry.removedIds.length + 2*titleLength(entry.title);
+		result = (result + 7) & ~7;
+		return result + OBJECT_SIZE*entry.frame.count;
+	}
+
+	/**
+	 * writer only, the entry gets the next index.
+	 */
+	void append(StepTimeline.Entry entry) {
+		int length = recordSize(entry);
+		MappedByteBuffer[] current = segments;
+		if ((current.length == 0) || (position + length > current[current.length-1].capacity())) {
+			current = addSegment(current, Math.max(SEGMENT_SIZE, length));
+		}
+		int segment = current.length-1;
+		MappedByteBuffer buf = current[segment];
+		int pos = position;
+		DDDBounds bounds = entry.bounds;
+		DDDFrame frame = entry.frame;
+		buf.putInt(pos, entry.keyframe ? 1 : 0);
+		buf.putInt(pos+4, frame.count);
+		buf.putInt(pos+8, entry.removedIds.length);
+		buf.putInt(pos+12, entry.title == null ? -1 : entry.title.length());
+		buf.putInt(pos+16, entry.step);
+		buf.putDouble(pos+24, bounds.minX);
+		buf.putDouble(pos+32, bounds.minY);
+		buf.putDouble(pos+40, bounds.minZ);
+		buf.putDouble(pos+48, bounds.maxX);
+		buf.putDouble(pos+56, bounds.maxY);
+		buf.putDouble(pos+64, bounds.maxZ);
+		int p = pos+HEADER_SIZE;
+		for (int id:entry.removedIds) {
+			buf.putInt(p, id);
+			p += 4;
+		}
+		for (int i=0; i<titleLength(entry.title); i++) {
+			buf.putChar(p, entry.title.charAt(i));
+			p += 2;
+		}
+		p = (p + 7) & ~7;
+		for (int i=0; i<frame.count; i++) {
+			buf.putInt(p, frame.id[i]);
+			buf.putInt(p+4, frame.type[i]);
+			buf.putDouble(p+8, frame.x[i]);
+			buf.putDouble(p+16, frame.y[i]);
+			buf.putDouble(p+24, frame.z[i]);
+			buf.putDouble(p+32, frame.size[i]);
+			if (frame.isLine(i)) {
+				buf.putDouble(p+40, frame.x2[i]);
+				buf.putDouble(p+48, frame.y2[i]);
+				buf.putDouble(p+56, frame.z2[i]);
+			}
+			p += OBJECT_SIZE;
+		}
+		position = pos + length;
+		int index = size;
+		long[] offs = offsets;
+		if (index == offs.length) {
+			offs = Arrays.copyOf(offs, 2*index);
+			offsets = offs;
+		}
+		offs[index] = (((long) segment) << 32) | pos;
+		bytes += length;
+		// publishes the record
+		size = index+1;
+	}
+
+	private MappedByteBuffer[] addSegment(MappedByteBuffer[] current, int length) {
+		try {
+			MappedByteBuffer[] result = Arrays.copyOf(current, current.length+1);
+			result[current.length] = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, length);
+			fileSize += length;
+			position = 0;
+			segments = result;
+			return result;
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	long getBytes() {
+		return bytes;
+	}
+
+	private MappedByteBuffer segment(long offset) {
+		return segments[(int) (offset >>> 32)];
+	}
+
+	DDDBounds getBounds(int index) {
+		long offset = offsets[index];
+		MappedByteBuffer buf = segment(offset);
+		int pos = (int) offset;
+		DDDBounds result = new DDDBounds();
+		if (buf.getDouble(pos+24) > buf.getDouble(pos+48)) {
+			return result;
+		}
+		result.include(buf.getDouble(pos+24), buf.getDouble(pos+32), buf.getDouble(pos+40));
+		result.include(buf.getDouble(pos+48), buf.getDouble(pos+56), buf.getDouble(pos+64));
+		return result;
+	}
+
+	String getTitle(int index) {
+		long offset = offsets[index];
+		MappedByteBuffer buf = segment(offset);
+		int pos = (int) offset;
+		int length = buf.getInt(pos+12);
+		if (length < 0) {
+			return null;
+		}
+		char[] title = new char[length];
+		int p = pos + HEADER_SIZE + 4*buf.getInt(pos+8);
+		for (int i=0; i<title.length; i++) {
+			title[i] = buf.getChar(p+2*i);
+		}
+		return new String(title);
+	}
+
+	/**
+	 * the entry is decoded from the file if it is not one of the last decoded entries.
+	 */
+	StepTimeline.Entry get(int index) {
+		synchronized (decoded) {
+			StepTimeline.Entry result = decoded.get(index);
+			if (result != null) {
+				return result;
+			}
+		}
+		StepTimeline.Entry result = decode(index);
+		synchronized (decoded) {
+			decoded.put(index, result);
+		}
+		return result;
+	}
+
+	private StepTimeline.Entry decode(int index) {
+		long offset = offsets[index];
+		MappedByteBuffer buf = segment(offset);
+		int pos = (int) offset;
+		int count = buf.getInt(pos+4);
+		int[] removedIds = new int[buf.getInt(pos+8)];
+		int p = pos + HEADER_SIZE;
+		for (int i=0; i<removedIds.length; i++) {
+			removedIds[i] = buf.getInt(p);
+			p += 4;
+		}
+		String title = getTitle(index);
+		p = (p + 2*titleLength(title) + 7) & ~7;
+		DDDFrame frame = new DDDFrame(count);
+		for (int i=0; i<count; i++) {
+			int type = buf.getInt(p+4);
+			if (DDDFrame.isLineType(type)) {
+				frame.addLine(buf.getInt(p), buf.getDouble(p+8), buf.getDouble(p+16), buf.getDouble(p+24), buf.getDouble(p+40), buf.getDouble(p+48), buf.getDouble(p+56), buf.getDouble(p+32), type);
+			}
+			else {
+				frame.addPoint(buf.getInt(p), buf.getDouble(p+8), buf.getDouble(p+16), buf.getDouble(p+24), buf.getDouble(p+32), type);
+			}
+			p += OBJECT_SIZE;
+		}
+		return new StepTimeline.Entry(buf.getInt(pos) == 1, frame, removedIds.length == 0 ? FrameDelta.NO_IDS : removedIds, buf.getInt(pos+16), title, getBounds(index));
+	}
+
+	Path getFile() {
+		return file;
+	}
+}
@@ -0,0 +1,464 @@
+package org.openjfx;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stores the steps of a GUIOutput3D run.
+ * Every keyframeInterval steps a full frame is kept, the steps in between only keep the
+ * objects which were added or changed and the ids of the removed objects, compared to the previous step.
+ * A step is rebuilt by applying the deltas on top of the nearest keyframe.
+ * The object order of a rebuilt step is not guaranteed to be the order in which the objects were added.
+ * Steps are added by one writer at a time and stored in a StepLog, readers never lock,
+ * each reading thread rebuilds steps with its own cursor.
+ * With a capacity the overflow policy decides what happens when the viewer falls behind
+ * or when there are more steps than fit on the heap.
+ */
+public class StepTimeline {
+
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 64;
+
+	/**
+	 * BLOCK: add() waits while the writer is capacity steps ahead of the furthest step shown by the viewer,
+	 *   all steps are kept.
+	 * DROP_OLDEST: the oldest steps are dropped, in whole keyframe intervals, so between
+	 *   capacity-keyframeInterval and capacity steps are kept. Dropped steps show the oldest kept step.
+	 * SAMPLE: when capacity steps are stored, every second stored step is dropped and from then on only
+	 *   every second added step is stored. A step which is not stored shows the stored step before it.
+	 * SPILL: like DROP_OLDEST, but the oldest steps are moved into a memory mapped file instead of being dropped,
+	 *   all steps stay readable. Only the last decoded spilled steps and an offset per step stay on the heap.
+	 */
+	public enum OverflowPolicy { BLOCK, DROP_OLDEST, SAMPLE, SPILL }
+
+	private static final long BLOCK_PARK_NANOS = 10000000L;
+
+	static class Entry {
+		final boolean keyframe;
+		/** keyframe: all objects, delta: only added or changed objects */
+		final DDDFrame frame;
+		final int[] removedIds;
+		final int step;
+		final String title;
+		final DDDBounds bounds;
+		Entry(boolean keyframe, DDDFrame frame, int[] removedIds, int step, String title, DDDBounds bounds) {
+			this.keyframe = keyframe;
+			this.frame = frame;
+			this.removedIds = removedIds;
+			this.step = step;
+			this.title = title;
+			this.bounds = bounds;
+		}
+	}
+
+	/**
+	 * the stored steps, entry i is step i*stride. SAMPLE replaces the whole log when it thins it out.
+	 */
+	static class Log {
+		final StepLog<Entry> entries;
+		final int stride;
+		/** entries dropped from the heap, null if they are not kept */
+		final StepSpill spill;
+		Log(int stride, StepSpill spill) {
+			this.entries = new StepLog<>();
+			this.stride = stride;
+			this.spill = spill;
+		}
+		/**
+		 * the entry is moved to the spill before it is dropped from the heap, so it is found in one of them.
+		 * @return null if the entry was dropped.
+		 */
+		Entry get(int index) {
+			Entry result = entries.get(index);
+			if ((result == null) && (spill != null) && (index < spill.size())) {
+				result = spill.get(index);
+			}
+			return result;
+		}
+		int first() {
+			return spill == null ? entries.first() : 0;
+		}
+		/**
+		 * a step may have a null title, so a dropped entry is reported by the result false and not by the title.
+		 */
+		boolean readTitle(int index, String[] title) {
+			Entry entry = entries.get(index);
+			if (entry != null) {
+				title[0] = entry.title;
+				return true;
+			}
+			if ((spill != null) && (index < spill.size())) {
+				title[0] = spill.getTitle(index);
+				return true;
+			}
+			return false;
+		}
+		DDDBounds getBounds(int index) {
+			Entry entry = entries.get(index);
+			if ((entry == null) && (spill != null) && (index < spill.size())) {
+				return spill.getBounds(index);
+			}
+			return entry == null ? null : entry.bounds;
+		}
+	}
+
+	private final int keyframeInterval;
+	private final int capacity;
+	private final OverflowPolicy policy;
+
+	private volatile Log log;
+	/** number of added steps, including steps which were dropped or not sampled */
+	private volatile int size;
+	private volatile int shownStep;
+	private volatile Thread blockedWriter;
+	private volatile DDDBounds totalBounds;
+
+	private final Object writerLock;
+	/** compares each stored step with the step stored before */
+	private final FrameDelta delta;
+	private int entriesSinceKeyframe;
+
+	private final ThreadLocal<Cursor> cursors;
+
+	private volatile long rawBytes;
+	private volatile long storedBytes;
+	private volatile int keyframes;
+
+	public StepTimeline() {
+		this(DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	public StepTimeline(int keyframeInterval) {
+		this(keyframeInterval, 0, OverflowPolicy.BLOCK);
+	}
+
+	/**
+	 * @param capacity 0 for unbounded.
+	 */
+	public StepTimeline(int keyframeInterval, int capacity, OverflowPolicy policy) {
+		this.keyframeInterval = Math.max(1, keyframeInterval);
+		boolean dropsIntervals = (policy == OverflowPolicy.DROP_OLDEST) || (policy == OverflowPolicy.SPILL);
+		if ((capacity < 0) || ((capacity > 0) && dropsIntervals && (capacity < 2*this.keyframeInterval))) {
+			throw new RuntimeException("invalid capacity " + capacity + " for " + policy);
+		}
+		if ((capacity > 0) && (policy == OverflowPolicy.SAMPLE) && (capacity < 2)) {
+			throw new RuntimeException("invalid capacity " + capacity + " for " + policy);
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+		this.log = new Log(1, (capacity > 0) && (policy == OverflowPolicy.SPILL) ? new StepSpill(StepSpill.DEFAULT_DECODED_WINDOW) : null);
+		this.shownStep = -1;
+		this.totalBounds = new DDDBounds();
+		this.writerLock = new Object();
+		this.delta = new FrameDelta();
+		this.cursors = ThreadLocal.withInitial(Cursor::new);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * oldest step which was not dropped.
+	 */
+	public int getFirstStep() {
+		Log current = log;
+		return current.first() * current.stride;
+	}
+
+	/**
+	 * @return index of the entry shown for the step.
+	 */
+	private static int entryIndex(Log current, int step) {
+		return Math.min(current.entries.size()-1, Math.max(current.first(), step / current.stride));
+	}
+
+	private void checkStep(int step) {
+		if ((step < 0) || (step >= size)) {
+			throw new IndexOutOfBoundsException(step);
+		}
+	}
+
+	public String getTitle(int step) {
+		checkStep(step);
+		String[] title = new String[1];
+		// only retries while SAMPLE replaces the log, the new log has an entry for the step
+		while (true) {
+			Log current = log;
+			if (current.readTitle(entryIndex(current, step), title)) {
+				return title[0];
+			}
+		}
+	}
+
+	/**
+	 * the viewer reports the steps it showed, BLOCK lets the writer continue up to capacity steps after it.
+	 */
+	public void markShown(int step) {
+		if (step <= shownStep) {
+			return;
+		}
+		shownStep = step;
+		Thread writer = blockedWriter;
+		if (writer != null) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	/**
+	 * the frame is stored as it is, it must not be modified by the caller afterwards.
+	 */
+	public void add(String title, DDDFrame frame) {
+		synchronized (writerLock) {
+			if ((policy == OverflowPolicy.BLOCK) && (capacity > 0)) {
+				awaitViewer();
+			}
+			int step = size;
+			DDDBounds bounds = DDDBounds.of(frame);
+			DDDBounds newTotal = new DDDBounds(totalBounds);
+			newTotal.include(bounds);
+			totalBounds = newTotal;
+			rawBytes += bytes(frame);
+			Log current = log;
+			if (step % current.stride == 0) {
+				store(current, step, title, frame, bounds);
+				if (capacity > 0) {
+					if ((policy == OverflowPolicy.SAMPLE) && (current.entries.size() >= capacity)) {
+						thinOut(current);
+					}
+					else if ((policy == OverflowPolicy.DROP_OLDEST) || (policy == OverflowPolicy.SPILL)) {
+						dropOldest(current);
+					}
+				}
+			}
+			// publishes the step
+			size = step+1;
+		}
+	}
+
+	private void awaitViewer() {
+		while (size - shownStep > capacity) {
+			blockedWriter = Thread.currentThread();
+			if (size - shownStep > capacity) {
+				LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+			}
+			blockedWriter = null;
+			if (Thread.interrupted()) {
+				throw new RuntimeException("interrupted while waiting for the viewer");
+			}
+		}
+	}
+
+	private void store(Log target, int step, String title, DDDFrame frame, DDDBounds bounds) {
+		Entry entry;
+		if ((entriesSinceKeyframe < keyframeInterval) && delta.compute(frame)) {
+			entry = new Entry(false, delta.changes, delta.removedIds, step, title, bounds);
+		}
+		else {
+			entry = new Entry(true, frame.trimToSize(), FrameDelta.NO_IDS, step, title, bounds);
+			keyframes++;
+			entriesSinceKeyframe = 0;
+		}
+		entriesSinceKeyframe++;
+		storedBytes += bytes(entry.frame) + 4L*entry.removedIds.length;
+		target.entries.append(entry);
+		delta.remember(frame);
+	}
+
+	/**
+	 * drops whole keyframe intervals, so the oldest kept entry is always a keyframe.
+	 * With a spill the entries are appended to it before they are dropped.
+	 */
+	private void dropOldest(Log current) {
+		StepLog<Entry> entries = current.entries;
+		while (entries.size() - entries.first() > capacity) {
+			int next = entries.first()+1;
+			while ((next < entries.size()) && !entries.get(next).keyframe) {
+				next++;
+			}
+			if (next >= entries.size()) {
+				return;
+			}
+			for (int i=entries.first(); i<next; i++) {
+				Entry dropped = entries.get(i);
+				storedBytes -= bytes(dropped.frame) + 4L*dropped.removedIds.length;
+				if (current.spill != null) {
+					current.spill.append(dropped);
+				}
+				else if (dropped.keyframe) {
+					keyframes--;
+				}
+			}
+			entries.dropBefore(next);
+		}
+	}
+
+	/**
+	 * stores every second entry of the log again in a new log with twice the stride,
+	 * the readers switch to it as soon as it is complete.
+	 */
+	private void thinOut(Log current) {
+		Log thinned = new Log(2*current.stride, null);
+		Cursor reader = new Cursor();
+		delta.reset();
+		storedBytes = 0;
+		keyframes = 0;
+		StepLog<Entry> entries = current.entries;
+		for (int i=entries.first(); i<entries.size(); i++) {
+			Entry entry = entries.get(i);
+			if (entry.step % thinned.stride == 0) {
+				store(thinned, entry.step, entry.title, reader.read(current, i), entry.bounds);
+			}
+		}
+		log = thinned;
+	}
+
+	public DDDBounds getBounds(int step) {
+		return getBounds(step, step);
+	}
+
+	/**
+	 * bounds of the stored steps from..to (inclusive), computed when the steps were added.
+	 */
+	public DDDBounds getBounds(int from, int to) {
+		DDDBounds result = new DDDBounds();
+		Log current = log;
+		if (current.entries.size() == 0) {
+			return result;
+		}
+		for (int i=entryIndex(current, from); i<=entryIndex(current, to); i++) {
+			DDDBounds bounds = current.getBounds(i);
+			if (bounds != null) {
+				result.include(bounds);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * bounds of all added steps.
+	 */
+	public DDDBounds getTotalBounds() {
+		return new DDDBounds(totalBounds);
+	}
+
+	/**
+	 * the returned frame is a copy and can be used while other steps are read.
+	 */
+	public DDDFrame getFrame(int step) {
+		checkStep(step);
+		Cursor cursor = cursors.get();
+		while (true) {
+			Log current = log;
+			DDDFrame result = cursor.read(current, entryIndex(current, step));
+			if (result != null) {
+				return result;
+			}
+		}
+	}
+
+	static boolean sameObject(DDDFrame f1, int i1, DDDFrame f2, int i2) {
+		if ((f1.type[i1] != f2.type[i2]) || (f1.x[i1] != f2.x[i2]) || (f1.y[i1] != f2.y[i2]) || (f1.z[i1] != f2.z[i2]) || (f1.size[i1] != f2.size[i2])) {
+			return false;
+		}
+		if (!f1.isLine(i1)) {
+			return true;
+		}
+		return (f1.x2[i1] == f2.x2[i2]) && (f1.y2[i1] == f2.y2[i2]) && (f1.z2[i1] == f2.z2[i2]);
+	}
+
+	static int copyObject(DDDFrame from, int idx, DDDFrame to) {
+		if (from.isLine(idx)) {
+			return to.addLine(from.id[idx], from.x[idx], from.y[idx], from.z[idx], from.x2[idx], from.y2[idx], from.z2[idx], from.size[idx], from.type[idx]);
+		}
+		return to.addPoint(from.id[idx], from.x[idx], from.y[idx], from.z[idx], from.size[idx], from.type[idx]);
+	}
+
+	private static long bytes(DDDFrame frame) {
+		long result = 40L*frame.count;
+		if (frame.x2 != null) {
+			result += 24L*frame.count;
+		}
+		return result;
+	}
+
+	/**
+	 * estimated bytes the added steps would need as full frames, divided by the bytes actually stored.
+	 */
+	public double getCompressionRatio() {
+		StepSpill spill = log.spill;
+		long stored = storedBytes + (spill == null ? 0 : spill.getBytes());
+		return stored == 0 ? 1.0 : (double) rawBytes / stored;
+	}
+
+	public String getCompressionInfo() {
+		Log current = log;
+		int kept = current.entries.size() - current.entries.first();
+		String result = String.format("steps=%d, kept=%d, keyframes=%d, raw=%dKB, stored=%dKB, ratio=%.1f", size, kept, keyframes, rawBytes/1024, storedBytes/1024, getCompressionRatio());
+		if (current.spill != null) {
+			result += String.format(", spilled=%d, spill=%dKB", current.spill.size(), current.spill.getBytes()/1024);
+		}
+		return result;
+	}
+
+	/**
+	 * the working frame of a rebuilt step, moving forward only applies the deltas in between.
+	 */
+	private static class Cursor {
+		Log log;
+		/** index of the loaded entry in log, -1 if nothing is loaded */
+		int step = -1;
+		final WorkingFrame working = new WorkingFrame();
+
+		/**
+		 * @return the rebuilt frame, null if an entry was dropped by the writer in the meantime.
+		 */
+		DDDFrame read(Log current, int targetStep) {
+			if (log != current) {
+				log = current;
+				step = -1;
+			}
+			if (!seek(targetStep)) {
+				step = -1;
+				return null;
+			}
+			return working.copyFrame();
+		}
+
+		private boolean seek(int targetStep) {
+			if ((step == -1) || (targetStep < step) || (keyframeBefore(targetStep) > step)) {
+				int start = keyframeBefore(targetStep);
+				if (start == -1) {
+					return false;
+				}
+				working.load(log.get(start).frame);
+				step = start;
+			}
+			while (step < targetStep) {
+				step++;
+				Entry entry = log.get(step);
+				if (entry == null) {
+					return false;
+				}
+				if (entry.keyframe) {
+					working.load(entry.frame);
+				}
+				else {
+					working.apply(entry.frame, entry.removedIds);
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return -1 if the entries were dropped.
+		 */
+		private int keyframeBefore(int targetStep) {
+			int result = targetStep;
+			Entry entry = log.get(result);
+			while ((entry != null) && !entry.keyframe) {
+				result--;
+				entry = log.get(result);
+			}
+			return entry == null ? -1 : result;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package org.openjfx;
+
+import java.util.Arrays;
+
+/**
+ * A frame rebuilt from a keyframe and the deltas after it, see FrameDelta.
+ * The object order is not guaranteed to be the order in which the objects were added.
+ */
+class WorkingFrame {
+
+	final DDDFrame frame = new DDDFrame();
+	/** id -> index+1 in frame, 0 for ids not in the frame */
+	private int[] indexById = new int[16];
+
+	void load(DDDFrame keyframe) {
+		for (int i=0; i<frame.count; i++) {
+			indexById[frame.id[i]] = 0;
+		}
+		frame.count = 0;
+		for (int i=0; i<keyframe.count; i++) {
+			int idx = StepTimeline.copyObject(keyframe, i, frame);
+			setIndex(frame.id[idx], idx);
+		}
+	}
+
+	void apply(DDDFrame changes, int[] removedIds) {
+		for (int id:removedIds) {
+			int idx = indexById[id]-1;
+			indexById[id] = 0;
+			int last = frame.count-1;
+			if (idx != last) {
+				moveObject(last, idx);
+				indexById[frame.id[idx]] = idx+1;
+			}
+			frame.count--;
+		}
+		for (int i=0; i<changes.count; i++) {
+			int id = changes.id[i];
+			int idx = (id < indexById.length) ? indexById[id]-1 : -1;
+			if (idx == -1) {
+				idx = StepTimeline.copyObject(changes, i, frame);
+				setIndex(id, idx);
+			}
+			else {
+				frame.type[idx] = changes.type[i];
+				frame.x[idx] = changes.x[i];
+				frame.y[idx] = changes.y[i];
+				frame.z[idx] = changes.z[i];
+				frame.size[idx] = changes.size[i];
+				if (changes.isLine(i)) {
+					frame.ensureLineArrays();
+					frame.x2[idx] = changes.x2[i];
+					frame.y2[idx] = changes.y2[i];
+					frame.z2[idx] = changes.z2[i];
+				}
+			}
+		}
+	}
+
+	private void moveObject(int from, int to) {
+		frame.id[to] = frame.id[from];
+		frame.type[to] = frame.type[from];
+		frame.x[to] = frame.x[from];
+		frame.y[to] = frame.y[from];
+		frame.z[to] = frame.z[from];
+		frame.size[to] = frame.size[from];
+		if (frame.x2 != null) {
+			frame.x2[to] = frame.x2[from];
+			frame.y2[to] = frame.y2[from];
+			frame.z2[to] = frame.z2[from];
+		}
+	}
+
+	private void setIndex(int id, int idx) {
+		if (id >= indexById.length) {
+			indexById = Arrays.copyOf(indexById, Math.max(id+1, 2*indexById.length));
+		}
+		indexById[id] = idx+1;
+	}
+
+	DDDFrame copyFrame() {
+		DDDFrame result = new DDDFrame(frame.count);
+		for (int i=0; i<frame.count; i++) {
+			StepTimeline.copyObject(frame, i, result);
+		}
+		return result;
+	}
+}
@@ -37,7 +37,7 @@ public class Y22Day22Animation {
 	private static final String INPUT_RX_ROW   = "^([ .#]+)$";
 	private static final String INPUT_RX_MOVES = "^([0-9RL]+)$";
 	
-	private static GUIOutput3D output;
+	private static OutputSink output;
 	
 
 	
@@ -260,6 +260,7 @@ public class Y22Day22Animation {
 
 		Map<Position, Character> path;
 
+		boolean staticOutputDone;
 		
 
 		public World(int cubeSize) {
@@ -634,30 +635,41 @@ public class Y22Day22Animation {
 			return result;
 		}
 		
-		public void output() {
+		/**
+		 * the cube and its walls do not change, they are sent only once as static layer.
+		 */
+		private void outputStatic() {
 			List<GUIOutput3D.DDDObject> points = new ArrayList<>();
 			points.add(new GUIOutput3D.DDDObject("0", 0, 0, 0, 0.5*cubeSize, 2));
 			for (SurfaceDef sDef:surfaceDefs.values()) {
 				for (int y=0; y<cubeSize; y++) {
 					for (int x=0; x<cubeSize; x++) {
-						char c = get(sDef.id, x, y);
-						Character step = path.get(new Position(x+sDef.offsX, y+sDef.offsY));
-						if (step != null) {
-							c = '*';
-						}
-						if ((c == '#') || (c == '*')) {
-							int type = (c == '#') ? 0 : 11;
-							if ((type == 11) && (sDef.id == surface) && (x == pos.x) && (y == pos.y)) {
-								type = 13;
-							}
+						if (get(sDef.id, x, y) == '#') {
 							Pos3D outPos = sDef.topLeftPos.add(x+1, sDef.xUnitVector).add(y+1, sDef.yUnitVector);
-							points.add(new GUIOutput3D.DDDObject(outPos.toString(), outPos.x, outPos.y, outPos.z, 0.5, type));
+							points.add(new GUIOutput3D.DDDObject(outPos.toString(), outPos.x, outPos.y, outPos.z, 0.5, 0));
 						}
 					}
 				}
 			}
-			if (output.scale == 1) {
-				output.adjustScale(points);
+			output.setStaticLayer(points);
+			staticOutputDone = true;
+		}
+		
+		public void output() {
+			if (!staticOutputDone) {
+				outputStatic();
+			}
+			List<GUIOutput3D.DDDObject> points = new ArrayList<>();
+			for (Position step:path.keySet()) {
+				SurfaceDef sDef = surfaceDefs.get(maxHSurface*(step.y/cubeSize) + (step.x/cubeSize));
+				int x = step.x - sDef.offsX;
+				int y = step.y - sDef.offsY;
+				int type = 11;
+				if ((sDef.id == surface) && (x == pos.x) && (y == pos.y)) {
+					type = 13;
+				}
+				Pos3D outPos = sDef.topLeftPos.add(x+1, sDef.xUnitVector).add(y+1, sDef.yUnitVector);
+				points.add(new GUIOutput3D.DDDObject(outPos.toString(), outPos.x, outPos.y, outPos.z, 0.5, type));
 			}
 			output.addStep("", points);
 		}
@@ -665,7 +677,8 @@ public class Y22Day22Animation {
 	}
 	
 	public static void mainPart2(String inputFile, int cubeSize) {
-		output = new GUIOutput3D("Day 22 Part I", true);
+		output = OutputSink.create("Day 22 Part I");
+		long startNanos = System.nanoTime();
 
 		World world = new World(cubeSize);
 		for (InputData data : new InputProcessor(inputFile)) {
@@ -685,6 +698,9 @@ public class Y22Day22Animation {
 		}
 		System.out.println("SURFACE="+world.surface+", POS="+world.pos+" DIR="+world.dir);
 		System.out.println("CODE: " + ((world.pos.y+world.cubeSize*(world.surface/world.maxHSurface)+1)*1000 + (world.pos.x+world.cubeSize*(world.surface%world.maxHSurface)+1)*4+world.dir));
+		System.out.println("SIMULATION: "+(System.nanoTime()-startNanos)/1000000+"ms");
+		System.out.println("OUTPUT: "+output.getInfo());
+		output.close();
 	}
 
 	
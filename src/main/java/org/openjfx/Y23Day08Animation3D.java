@@ -16,7 +16,6 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * see: https://adventofcode.com/2023/day/08
@@ -30,7 +29,7 @@ public class Y23Day08Animation3D {
 	
 	
 	
-	static GUIOutput3D output;
+	static OutputSink output;
 	/*
 	 *
 	 * LLR
@@ -159,6 +158,9 @@ public class Y23Day08Animation3D {
 		int nextMovementIdx;
 		int ticks;
 		Map<String, Node3D> nodes3D;
+		NetGraph graph;
+		NetLayout layout = NetLayout.create();
+		boolean staticShown;
 		public World() {
 			this.nodes = new HashMap<>();
 			this.ticks = 0;
@@ -203,69 +205,27 @@ public class Y23Day08Animation3D {
 				addNode3DConnection(node.nodeName, node.childLeft);
 				addNode3DConnection(node.nodeName, node.childRight);
 			}
+			graph = new NetGraph(nodes3D.values());
 		}
 		public void move3DNodes() {
-			for (Node3D node:nodes3D.values()) {
-				List<Pos3D> neighbourPos = node.neighbours.stream().map(n->n.pos).toList();
-				Pos3D sum = new Pos3D(0,0,0);
-//				System.out.println("NODE "+node);
-				int cntTargets = 0;
-				for (Node3D neighbour:node.neighbours) {
-//					System.out.println("  neighbout "+neighbour);
-					Pos3D vect = neighbour.pos.subtract(node.pos);
-					double dist = vect.magnitude();
-//					System.out.println("  dist: "+dist);
-					double move = dist-NET_DIST;
-//					System.out.println("  move: "+move);
-					Pos3D mVect = vect.normalize().multiply(move*0.5);
-//					System.out.println("  mVect: "+mVect);
-					Pos3D target = node.pos.add(mVect);
-//					System.out.println("  target: "+target);
-					sum = sum.add(target);
-					cntTargets++;
-//					System.out.println("  SUM: "+sum);
-				}
-				for (Node3D otherNode:nodes3D.values()) {
-					if (otherNode == node) {
-						continue;
-					}
-					Pos3D vect = otherNode.pos.subtract(node.pos);
-					double dist = vect.magnitude();
-					if (dist<NET_DIST/2) {
-						double move = dist-NET_DIST/2;
-						Pos3D mVect = vect.normalize().multiply(0.5*move);
-						Pos3D target = node.pos.add(mVect);
-						sum = sum.add(target);
-						cntTargets++;
-					}
-				}
-				Pos3D targetPos = sum.multiply(1.0/cntTargets);
-//				System.out.println("  SUM/#: "+targetPos);
-//				Pos3D halfWay = targetPos.subtract(node.pos)
-				node.newPos = targetPos;
-			}
+			layout.move3DNodes(graph);
 			System.out.println();
-			for (Node3D node:nodes3D.values()) {
-				node.pos = node.newPos;
-			}
 		}
-		public void show3D() {
+		/**
+		 * nodes and edges do not move after the layout, they are sent only once as static layer.
+		 */
+		private void showStatic3D() {
 			List<GUIOutput3D.DDDObject> points = new ArrayList<>();
 			for (Node3D node:nodes3D.values()) {
 				String nodeName = node.name;
 				int type = 3;
-				double size = 1.0;
-				if (currentNodeName().equals(nodeName)) {
-					type = 0;
-					size = 1.5;
-				}
-				else if (nodeName.equals("AAA")) {
+				if (nodeName.equals("AAA")) {
 					type = 2;
 				}
 				else if (nodeName.equals("ZZZ")) {
 					type = 1;
 				}
-				double boxSize = size*NET_SIZE_FACTOR;
+				double boxSize = NET_SIZE_FACTOR;
 				double lineSize = 0.1*NET_SIZE_FACTOR;
 				GUIOutput3D.DDDObject point = new GUIOutput3D.DDDObject(node.name, node.pos.x, node.pos.y, node.pos.z, boxSize, type);
 				points.add(point);
@@ -274,9 +234,18 @@ public class Y23Day08Animation3D {
 					points.add(line);
 				}
 			}
-			if (output.scale == 1) {
-				output.adjustScale(points);
+			output.setStaticLayer(points);
+			staticShown = true;
+		}
+		public void show3D() {
+			graph.syncNodes();
+			if (!staticShown) {
+				showStatic3D();
 			}
+			List<GUIOutput3D.DDDObject> points = new ArrayList<>();
+			Node3D node = nodes3D.get(currentNodeName());
+			double boxSize = 1.5*NET_SIZE_FACTOR;
+			points.add(new GUIOutput3D.DDDObject("current", node.pos.x, node.pos.y, node.pos.z, boxSize, 0));
 			output.addStep(currentNode.toString()+" "+peekNextDir(), points);
 		}
 		private void addNode3DConnection(String nodeName1, String nodeName2) {
@@ -349,6 +318,9 @@ public class Y23Day08Animation3D {
 		int nextMovementIdx;
 		int ticks;
 		Map<String, Node3D> nodes3D;
+		NetGraph graph;
+		NetLayout layout = NetLayout.create();
+		boolean staticShown;
 		public World2() {
 			this.nodes = new HashMap<>();
 			this.currentNodes = new ArrayList<>();
@@ -431,70 +403,27 @@ public class Y23Day08Animation3D {
 				addNode3DConnection(node.nodeName, node.childLeft);
 				addNode3DConnection(node.nodeName, node.childRight);
 			}
+			graph = new NetGraph(nodes3D.values());
 		}
 		public void move3DNodes() {
-			for (Node3D node:nodes3D.values()) {
-				List<Pos3D> neighbourPos = node.neighbours.stream().map(n->n.pos).toList();
-				Pos3D sum = new Pos3D(0,0,0);
-//				System.out.println("NODE "+node);
-				int cntTargets = 0;
-				for (Node3D neighbour:node.neighbours) {
-//					System.out.println("  neighbout "+neighbour);
-					Pos3D vect = neighbour.pos.subtract(node.pos);
-					double dist = vect.magnitude();
-//					System.out.println("  dist: "+dist);
-					double move = dist-NET_DIST;
-//					System.out.println("  move: "+move);
-					Pos3D mVect = vect.normalize().multiply(move*0.5);
-//					System.out.println("  mVect: "+mVect);
-					Pos3D target = node.pos.add(mVect);
-//					System.out.println("  target: "+target);
-					sum = sum.add(target);
-					cntTargets++;
-//					System.out.println("  SUM: "+sum);
-				}
-				for (Node3D otherNode:nodes3D.values()) {
-					if (otherNode == node) {
-						continue;
-					}
-					Pos3D vect = otherNode.pos.subtract(node.pos);
-					double dist = vect.magnitude();
-					if (dist<NET_DIST/2) {
-						double move = dist-NET_DIST/2;
-						Pos3D mVect = vect.normalize().multiply(0.5*move);
-						Pos3D target = node.pos.add(mVect);
-						sum = sum.add(target);
-						cntTargets++;
-					}
-				}
-				Pos3D targetPos = sum.multiply(1.0/cntTargets);
-//				System.out.println("  SUM/#: "+targetPos);
-//				Pos3D halfWay = targetPos.subtract(node.pos)
-				node.newPos = targetPos;
-			}
+			layout.move3DNodes(graph);
 			System.out.println();
-			for (Node3D node:nodes3D.values()) {
-				node.pos = node.newPos;
-			}
 		}
-		public void show3D() {
-			Set<String> currentNodeNames = currentNodes.stream().map(n->n.nodeName).collect(Collectors.toSet());
+		/**
+		 * nodes and edges do not move after the layout, they are sent only once as static layer.
+		 */
+		private void showStatic3D() {
 			List<GUIOutput3D.DDDObject> points = new ArrayList<>();
 			for (Node3D node:nodes3D.values()) {
 				String nodeName = node.name;
 				int type = 3;
-				double size = 1.0;
-				if (currentNodeNames.contains(nodeName)) {
-					type = 0;
-					size = 1.5;
-				}
-				else if (nodeName.endsWith("A")) {
+				if (nodeName.endsWith("A")) {
 					type = 2;
 				}
 				else if (nodeName.endsWith("Z")) {
 					type = 1;
 				}
-				double boxSize = size*NET_SIZE_FACTOR;
+				double boxSize = NET_SIZE_FACTOR;
 				double lineSize = 0.1*NET_SIZE_FACTOR;
 				GUIOutput3D.DDDObject point = new GUIOutput3D.DDDObject(node.name, node.pos.x, node.pos.y, node.pos.z, boxSize, type);
 				points.add(point);
@@ -508,8 +437,19 @@ public class Y23Day08Animation3D {
 					}
 				}
 			}
-			if (output.scale == 1) {
-				output.adjustScale(points);
+			output.setStaticLayer(points);
+			staticShown = true;
+		}
+		public void show3D() {
+			graph.syncNodes();
+			if (!staticShown) {
+				showStatic3D();
+			}
+			List<GUIOutput3D.DDDObject> points = new ArrayList<>();
+			double boxSize = 1.5*NET_SIZE_FACTOR;
+			for (int i=0; i<currentNodes.size(); i++) {
+				Node3D node = nodes3D.get(currentNodes.get(i).nodeName);
+				points.add(new GUIOutput3D.DDDObject("current"+i, node.pos.x, node.pos.y, node.pos.z, boxSize, 0));
 			}
 			output.addStep(currentNodes.get(1).toString()+" "+peekNextDir(), points);
 		}
@@ -553,8 +493,8 @@ public class Y23Day08Animation3D {
 
 	
 	public static void mainPart1(String inputFile) {
-		output = new GUIOutput3D("Day 08 Part I", true);
-		output.setUseCachedNodes(true);
+		output = OutputSink.create("Day 08 Part I");
+		long startNanos = System.nanoTime();
 		World world = new World();
 		for (InputData data:new InputProcessor(inputFile)) {
 //			System.out.println(data);
@@ -572,6 +512,7 @@ public class Y23Day08Animation3D {
 //				world.show3D();
 //			}
 		}
+		world.layout.close();
 		world.show3D();
 		int cnt = 0;
 		while (!world.currentNodeName().equals("ZZZ")) {
@@ -583,12 +524,15 @@ public class Y23Day08Animation3D {
 			}
 		}
 		System.out.println("TICKS: "+world.getTicks());
+		System.out.println("SIMULATION: "+(System.nanoTime()-startNanos)/1000000+"ms");
+		System.out.println("OUTPUT: "+output.getInfo());
+		output.close();
 	}
 	
 	
 	public static void mainPart2(String inputFile) {
-		output = new GUIOutput3D("Day 08 Part II", true);
-		output.setUseCachedNodes(true);
+		output = OutputSink.create("Day 08 Part II");
+		long startNanos = System.nanoTime();
 		World2 world2 = new World2();
 		for (InputData data:new InputProcessor(inputFile)) {
 //			System.out.println(data);
@@ -604,6 +548,7 @@ public class Y23Day08Animation3D {
 		for (int n=1; n<NET_ITERATIONS; n++) {
 			world2.move3DNodes();
 		}
+		world2.layout.close();
 		world2.show3D();
 		
 //		System.out.println(world2.getTicks()+" "+world2.peekNextDir());
@@ -622,6 +567,9 @@ public class Y23Day08Animation3D {
 //			System.out.println(world2.toString());
 		}
 		System.out.println("TICKS: "+world2.calcTicksForAllZ());
+		System.out.println("SIMULATION: "+(System.nanoTime()-startNanos)/1000000+"ms");
+		System.out.println("OUTPUT: "+output.getInfo());
+		output.close();
 	}
 
 	